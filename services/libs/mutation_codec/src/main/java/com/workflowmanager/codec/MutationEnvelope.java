@@ -0,0 +1,179 @@
+package com.workflowmanager.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Binary envelope of the mutation messages sent through rabbit:
+ *
+ * <pre>
+ * u8   version
+ * u16  key count
+ * key count times:
+ *   u16   key length
+ *   ascii key, format: clientId:type[:id][:attr][@seq]
+ * rest of the body: payload
+ * </pre>
+ *
+ * Keys are written straight from their parts and the payload (json already encoded) is copied as
+ * is, so the receiver can forward it without decoding it. seq is the sequence number of the event
+ * in the topic of the key, when the publisher assigns one.
+ */
+public final class MutationEnvelope {
+  public static final String CONTENT_TYPE = "application/vnd.workflowmanager.mutation";
+  public static final byte VERSION = 1;
+
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] ATTR = ":attr".getBytes(StandardCharsets.US_ASCII);
+  private static final long NO_SEQ = -1;
+
+  private MutationEnvelope() {}
+
+  public static Encoder encoder(UUID clientId) {
+    return new Encoder(clientId);
+  }
+
+  /** Throws IllegalArgumentException if body isn't a valid envelope. */
+  public static Decoded decode(byte[] body) {
+    if (body.length < 3 || body[0] != VERSION)
+      throw new IllegalArgumentException("Not a mutation envelope");
+
+    int keyCount = readU16(body, 1);
+    List<String> keys = new ArrayList<>(keyCount);
+
+    int pos = 3;
+    for (int i = 0; i < keyCount; i++) {
+      if (pos + 2 > body.length) throw new IllegalArgumentException("Truncated mutation envelope");
+      int length = readU16(body, pos);
+      pos += 2;
+
+      if (pos + length > body.length)
+        throw new IllegalArgumentException("Truncated mutation envelope");
+      keys.add(new String(body, pos, length, StandardCharsets.US_ASCII));
+      pos += length;
+    }
+
+    return new Decoded(keys, body, pos);
+  }
+
+  private static int readU16(byte[] body, int pos) {
+    return ((body[pos] & 0xff) << 8) | (body[pos + 1] & 0xff);
+  }
+
+  public record Decoded(List<String> keys, byte[] body, int payloadOffset) {
+    public byte[] payload() {
+      return Arrays.copyOfRange(this.body, this.payloadOffset, this.body.length);
+    }
+  }
+
+  /** Not thread safe, one encoder per message. */
+  public static final class Encoder {
+    private final UUID clientId;
+    private byte[] buf = new byte[256];
+    // version and key count
+    private int pos = 3;
+    private int keyCount = 0;
+
+    private Encoder(UUID clientId) {
+      this.clientId = clientId;
+      this.buf[0] = VERSION;
+    }
+
+    /** id can be null for keys of a whole type (e.g. all workflows of the client) */
+    public Encoder key(String type, Integer id, boolean attr) {
+      return this.key(type, id, attr, NO_SEQ);
+    }
+
+    public Encoder key(String type, Integer id, boolean attr, long seq) {
+      if (this.keyCount == 0xffff) throw new IllegalStateException("Too many keys");
+
+      int lengthPos = this.pos;
+      this.ensure(2 + 36 + 1 + type.length() + 12 + ATTR.length + 21);
+      this.pos += 2;
+
+      this.writeUuid(this.clientId);
+      this.buf[this.pos++] = ':';
+      for (int i = 0; i < type.length(); i++) {
+        char c = type.charAt(i);
+        if (c > 0x7f) throw new IllegalArgumentException("Key type must be ascii: " + type);
+        this.buf[this.pos++] = (byte) c;
+      }
+      if (id != null) {
+        this.buf[this.pos++] = ':';
+        this.writeLong(id);
+      }
+      if (attr) {
+        System.arraycopy(ATTR, 0, this.buf, this.pos, ATTR.length);
+        this.pos += ATTR.length;
+      }
+      if (seq != NO_SEQ) {
+        this.buf[this.pos++] = '@';
+        this.writeLong(seq);
+      }
+
+      int length = this.pos - lengthPos - 2;
+      if (length > 0xffff) throw new IllegalArgumentException("Key too long: " + type);
+      this.buf[lengthPos] = (byte) (length >>> 8);
+      this.buf[lengthPos + 1] = (byte) length;
+      this.keyCount++;
+
+      return this;
+    }
+
+    public byte[] encode(byte[] payload) {
+      this.buf[1] = (byte) (this.keyCount >>> 8);
+      this.buf[2] = (byte) this.keyCount;
+
+      byte[] body = Arrays.copyOf(this.buf, this.pos + payload.length);
+      System.arraycopy(payload, 0, body, this.pos, payload.length);
+
+      return body;
+    }
+
+    private void ensure(int extra) {
+      if (this.pos + extra > this.buf.length)
+        this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.pos + extra));
+    }
+
+    // same text as UUID.toString
+    private void writeUuid(UUID uuid) {
+      long msb = uuid.getMostSignificantBits();
+      long lsb = uuid.getLeastSignificantBits();
+
+      this.writeHex(msb >>> 32, 8);
+      this.buf[this.pos++] = '-';
+      this.writeHex(msb >>> 16, 4);
+      this.buf[this.pos++] = '-';
+      this.writeHex(msb, 4);
+      this.buf[this.pos++] = '-';
+      this.writeHex(lsb >>> 48, 4);
+      this.buf[this.pos++] = '-';
+      this.writeHex(lsb, 12);
+    }
+
+    private void writeHex(long value, int digits) {
+      for (int i = digits - 1; i >= 0; i--)
+        this.buf[this.pos++] = HEX[(int) (value >>> (i * 4)) & 0xf];
+    }
+
+    private void writeLong(long value) {
+      long v = value;
+      if (v < 0) {
+        this.buf[this.pos++] = '-';
+        v = -v;
+      }
+
+      int digits = 1;
+      for (long rest = v / 10; rest > 0; rest /= 10) digits++;
+
+      for (int i = digits - 1; i >= 0; i--) {
+        this.buf[this.pos + i] = (byte) ('0' + (v % 10));
+        v /= 10;
+      }
+      this.pos += digits;
+    }
+  }
+}
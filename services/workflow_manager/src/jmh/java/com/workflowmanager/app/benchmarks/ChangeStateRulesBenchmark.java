@@ -0,0 +1,169 @@
+package com.workflowmanager.app.benchmarks;
+
+import com.workflowmanager.app.controllers.requests.RequestNewAttribute;
+import com.workflowmanager.app.controllers.requests.RequestNewAttributeDescription;
+import com.workflowmanager.app.controllers.requests.RequestNewWorkflowState;
+import com.workflowmanager.app.controllers.requests.RequestSetChangeStateRule;
+import com.workflowmanager.app.core.AuthorizationDTO;
+import com.workflowmanager.app.core.BaseEntity;
+import com.workflowmanager.app.domains.NewWorkflowAttributeDTO;
+import com.workflowmanager.app.domains.NewWorkflowAttributeDescriptionDTO;
+import com.workflowmanager.app.domains.NewWorkflowStateDTO;
+import com.workflowmanager.app.domains.Workflow;
+import com.workflowmanager.app.domains.WorkflowAttribute;
+import com.workflowmanager.app.domains.WorkflowAttributeDescription;
+import com.workflowmanager.app.domains.WorkflowAttributeDescription.WorkflowAttributeReferenceType;
+import com.workflowmanager.app.domains.WorkflowAttributeDescription.WorkflowAttributeType;
+import com.workflowmanager.app.domains.WorkflowState;
+import com.workflowmanager.app.domains.state.ChangeStateRules;
+import com.workflowmanager.app.domains.state.ChangeStateRulesCEL;
+import com.workflowmanager.app.domains.state.NewChangeStateRulesDTO;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rule engine throughput for a workflow with a given number of attribute descriptions and
+ * expressions per rule. The warm benchmarks hit the compiler and program caches, the cold ones
+ * evict the workflow first so every call builds the compiler and compiles the rule again.
+ *
+ * <p>Run with {@code bazel run //services/workflow_manager:workflow_manager_jmh}, the gc profiler
+ * is enabled by default and reports the allocation rate next to the ops/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ChangeStateRulesBenchmark {
+  private static final Integer WORKFLOW_ID = 1;
+  private static final Integer FROM_ID = 1;
+  private static final Integer TO_ID = 2;
+  private static final Integer ENTITY_ID = 1;
+
+  @Param({"10", "100", "1000"})
+  public int descriptionCount;
+
+  @Param({"1", "10", "50"})
+  public int expressionCount;
+
+  private List<WorkflowAttributeDescription> descriptions;
+  private ChangeStateRules rules;
+  private List<WorkflowAttribute> entityAttrs;
+
+  @Setup(Level.Trial)
+  public void setup() throws ReflectiveOperationException {
+    AuthorizationDTO auth =
+        new AuthorizationDTO(
+            Map.of(
+                "client-id", UUID.randomUUID().toString(),
+                "user-id", UUID.randomUUID().toString()));
+
+    Workflow workflow = new Workflow();
+    setId(workflow, WORKFLOW_ID);
+
+    WorkflowState from = newState(workflow, auth, FROM_ID);
+    WorkflowState to = newState(workflow, auth, TO_ID);
+
+    this.descriptions = new ArrayList<>();
+    this.entityAttrs = new ArrayList<>();
+
+    for (int i = 0; i < this.descriptionCount; i++) {
+      RequestNewAttributeDescription request = new RequestNewAttributeDescription();
+      request.name = "a" + i;
+      request.refType = WorkflowAttributeReferenceType.WORKFLOW_ENTITY;
+      request.attrType = WorkflowAttributeType.INTEGER;
+
+      WorkflowAttributeDescription description =
+          new WorkflowAttributeDescription(
+              new NewWorkflowAttributeDescriptionDTO(request, workflow), workflow);
+      this.descriptions.add(description);
+
+      RequestNewAttribute value = new RequestNewAttribute();
+      value.integer = String.valueOf(i + 1);
+      this.entityAttrs.add(
+          new WorkflowAttribute(
+              new NewWorkflowAttributeDTO(value),
+              description,
+              workflow,
+              ENTITY_ID,
+              WorkflowAttributeReferenceType.WORKFLOW_ENTITY));
+    }
+
+    RequestSetChangeStateRule request = new RequestSetChangeStateRule();
+    request.toId = TO_ID;
+    request.expressionNames = new ArrayList<>();
+    request.expressions = new ArrayList<>();
+
+    for (int i = 0; i < this.expressionCount; i++) {
+      request.expressionNames.add("r" + i);
+      request.expressions.add(String.format("e_a%d > 0", i % this.descriptionCount));
+    }
+
+    this.rules =
+        new ChangeStateRules(
+            from, this.descriptions, to, new NewChangeStateRulesDTO(request, FROM_ID));
+    ChangeStateRulesCEL.cacheRules(this.descriptions, this.rules);
+  }
+
+  @Benchmark
+  public void applyRuleWarm() {
+    applyRule();
+  }
+
+  @Benchmark
+  public void applyRuleCold() {
+    ChangeStateRulesCEL.evictWorkflow(WORKFLOW_ID);
+    applyRule();
+  }
+
+  @Benchmark
+  public void checkRulesWarm() {
+    ChangeStateRulesCEL.checkRules(this.descriptions, this.rules);
+  }
+
+  @Benchmark
+  public void checkRulesCold() {
+    ChangeStateRulesCEL.evictWorkflow(WORKFLOW_ID);
+    ChangeStateRulesCEL.checkRules(this.descriptions, this.rules);
+  }
+
+  private void applyRule() {
+    ChangeStateRulesCEL.applyRule(
+        this.descriptions, this.rules, List.of(), this.entityAttrs, List.of(), List.of());
+  }
+
+  private static WorkflowState newState(Workflow workflow, AuthorizationDTO auth, Integer id)
+      throws ReflectiveOperationException {
+    RequestNewWorkflowState request = new RequestNewWorkflowState();
+    request.name = "s" + id;
+
+    WorkflowState state = new WorkflowState(new NewWorkflowStateDTO(request, auth), workflow);
+    setId(state, id);
+
+    return state;
+  }
+
+  // ids are generated by the database, there's no setter for them
+  private static void setId(BaseEntity entity, Integer id) throws ReflectiveOperationException {
+    Field field = BaseEntity.class.getDeclaredField("id");
+    field.setAccessible(true);
+    field.set(entity, id);
+  }
+}
@@ -1,6 +1,11 @@
 package com.workflowmanager.app;
 
 import java.util.UUID;
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.core.Base64UrlNamingStrategy;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.TopicExchange;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
@@ -9,10 +14,15 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class App {
   public static final String topicExchangeName = "workflow-manager-mutations";
+  public static final String mutationsRoutingKey = "workflow.entities.mutations";
+  public static final String definitionsRoutingKey = "workflow.definitions";
+  static final String definitionsQueueName = "workflow-manager-definitions";
 
   @Value("${spring.rabbitmq.host}")
   String rabbitHost;
@@ -35,6 +45,9 @@ public class App {
     cachingConnectionFactory.setUsername(this.rabbitUsername);
     cachingConnectionFactory.setPassword(this.rabbitPassword);
     cachingConnectionFactory.setPort(this.rabbitPort);
+    // Publisher waits for a confirm of every message
+    cachingConnectionFactory.setPublisherConfirmType(
+        CachingConnectionFactory.ConfirmType.CORRELATED);
     return cachingConnectionFactory;
   }
 
@@ -43,6 +56,19 @@ public class App {
     return new TopicExchange(App.topicExchangeName);
   }
 
+  /** Exclusive queue of this node, definition changes for its WorkflowDefinitionCache. */
+  @Bean
+  Queue definitionsQueue() {
+    return new AnonymousQueue(new Base64UrlNamingStrategy(App.definitionsQueueName + "."));
+  }
+
+  @Bean
+  Binding definitionsBinding(TopicExchange exchange) {
+    return BindingBuilder.bind(this.definitionsQueue())
+        .to(exchange)
+        .with(App.definitionsRoutingKey + ".#");
+  }
+
   public static HttpHeaders mutationResponseHeaders(UUID eventId) {
     HttpHeaders responseHeaders = new HttpHeaders();
     responseHeaders.set("wm-event-id", eventId.toString());
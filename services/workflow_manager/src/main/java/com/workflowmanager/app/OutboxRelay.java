@@ -0,0 +1,146 @@
+package com.workflowmanager.app;
+
+import com.workflowmanager.app.Publisher.EncodedMessage;
+import com.workflowmanager.app.core.ErrorUtils;
+import com.workflowmanager.app.domains.OutboxEvent;
+import com.workflowmanager.app.repositories.OutboxEventRepository;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Drains outbox_events to rabbit. A batch is claimed in a short transaction, sent through Publisher
+ * without holding a connection and only deleted after the broker confirmed all of it; after a
+ * failure the batch stays claimed and is sent again later, so delivery is at least once. Runs after
+ * every commit that wrote events and on a fixed delay as a fallback (e.g. events left by a node
+ * that went down).
+ *
+ * <p>One relay sends at a time, in insert_order: a node only claims when no other node has
+ * unexpired claims (claim-timeout, longer than send-timeout), and decides it under an advisory
+ * lock. The claims of a node that went down expire and its batch is taken over.
+ *
+ * <p>Only the events of a topic are sent in the order they were committed. insert_order is taken
+ * at insert, not at commit, so a transaction that inserted earlier and commits later can have its
+ * events sent after those of other topics that were inserted after them (a claim doesn't wait for
+ * transactions still in flight). Events of the same topic lock its topic_sequences row, their
+ * transactions can't interleave.
+ */
+@Component
+@Profile("!openapi")
+public class OutboxRelay {
+  // pg advisory lock taken while claiming, any key unique in the database
+  private static final long CLAIM_LOCK = 0x6f7574626f78L;
+
+  private final OutboxEventRepository outboxEventRepository;
+  private final Publisher publisher;
+  private final TransactionTemplate transactionTemplate;
+  private final ExecutorService relay;
+  private final AtomicBoolean drainPending = new AtomicBoolean(false);
+  private final int batchSize;
+  private final Duration sendTimeout;
+  private final Duration claimTimeout;
+  // claimed_by of this node's relay
+  private final String owner = UUID.randomUUID().toString();
+
+  public OutboxRelay(
+      OutboxEventRepository outboxEventRepository,
+      Publisher publisher,
+      TransactionTemplate transactionTemplate,
+      @Value("${workflow-manager.outbox.batch-size:1000}") int batchSize,
+      @Value("${workflow-manager.outbox.send-timeout:PT1M}") Duration sendTimeout,
+      @Value("${workflow-manager.outbox.claim-timeout:PT2M}") Duration claimTimeout) {
+    this.outboxEventRepository = outboxEventRepository;
+    this.publisher = publisher;
+    this.transactionTemplate = transactionTemplate;
+    this.relay =
+        Executors.newSingleThreadExecutor(Thread.ofPlatform().name("outbox-relay-", 0).factory());
+    this.batchSize = batchSize;
+    this.sendTimeout = sendTimeout;
+    this.claimTimeout = claimTimeout;
+  }
+
+  public record EventsWritten() {}
+
+  @TransactionalEventListener
+  public void onEventsWritten(EventsWritten written) {
+    // many commits in a row only need one drain
+    if (this.drainPending.compareAndSet(false, true))
+      this.relay.execute(
+          () -> {
+            this.drainPending.set(false);
+            this.drain();
+          });
+  }
+
+  @Scheduled(fixedDelayString = "${workflow-manager.outbox.poll-interval:PT1S}")
+  public void poll() {
+    this.drain();
+  }
+
+  private synchronized void drain() {
+    try {
+      int sent;
+      do {
+        sent = this.sendBatch();
+      } while (sent == this.batchSize);
+    } catch (Exception err) {
+      System.out.println("outbox relay failed, will try again: " + err);
+    }
+  }
+
+  private int sendBatch() {
+    List<OutboxEvent> events = this.transactionTemplate.execute(status -> this.claimBatch());
+    if (events == null || events.isEmpty()) return 0;
+
+    try {
+      this.publisher
+          .send(
+              events.stream()
+                  .map(
+                      event ->
+                          new EncodedMessage(
+                              event.getBody(), event.getContentType(), event.getRoutingKey()))
+                  .toList())
+          .get(this.sendTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException err) {
+      Thread.currentThread().interrupt();
+      throw ErrorUtils.just500("Outbox relay interrupted");
+    } catch (ExecutionException | TimeoutException err) {
+      throw ErrorUtils.just500("Outbox batch not confirmed: " + err);
+    }
+
+    this.transactionTemplate.executeWithoutResult(
+        status ->
+            this.outboxEventRepository.deleteByIds(
+                events.stream().map(OutboxEvent::getId).toList()));
+    return events.size();
+  }
+
+  /** Empty while another relay is claiming or has unexpired claims. */
+  private List<OutboxEvent> claimBatch() {
+    if (!this.outboxEventRepository.tryLock(CLAIM_LOCK)) return List.of();
+    if (this.outboxEventRepository.isClaimedByOther(this.owner, this.claimTimeout.toSeconds()))
+      return List.of();
+
+    this.outboxEventRepository.claimOldest(this.owner, this.batchSize);
+    return this.outboxEventRepository.listClaimed(this.owner, this.batchSize);
+  }
+
+  @PreDestroy
+  void shutdown() {
+    this.relay.shutdownNow();
+  }
+}
@@ -11,106 +11,346 @@ import com.workflowmanager.app.controllers.responses.ResponseWorkflowEntity;
 import com.workflowmanager.app.controllers.responses.ResponseWorkflowState;
 import com.workflowmanager.app.core.AuthorizationDTO;
 import com.workflowmanager.app.core.ErrorUtils;
+import com.workflowmanager.app.domains.OutboxEvent;
 import com.workflowmanager.app.domains.WorkflowAttributeDescription.WorkflowAttributeReferenceType;
+import com.workflowmanager.app.repositories.OutboxEventRepository;
+import com.workflowmanager.app.repositories.TopicSequenceRepository;
+import com.workflowmanager.codec.MutationEnvelope;
+import jakarta.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.core.task.TaskExecutor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+/**
+ * Mutations are written to the outbox by publish and sent to rabbit by OutboxRelay with send.
+ * Batches are handed to a single sender thread, every message is published with a correlated
+ * confirm and at most maxInFlight messages wait for their confirm at the same time. Nacked or timed
+ * out messages are sent again with backoff up to maxAttempts, so delivery is at least once.
+ *
+ * <p>Messages are text ("keys json") unless binaryEnvelope is set, then they're encoded with
+ * MutationEnvelope. The last key of a message is the topic of the object it carries, only that key
+ * gets the next sequence number of its topic when the batch is published (key@seq, also in
+ * Message.seqs) and websocket clients resume from them. The other keys (the workflow of a state or
+ * an entity, all the workflows of the client) have no sequence, numbering them would make every
+ * mutation of a workflow wait for the row of its topic in topic_sequences.
+ *
+ * <p>OutboxRelay hands the messages to send in insert_order, which only follows the order of the
+ * commits per topic: messages of different topics may be sent in another order than their
+ * transactions committed. The sender doesn't keep even that order: a batch the full queue rejects
+ * is sent by the caller's thread, and a retried message goes out after the ones sent while it
+ * waited. Consumers order the messages of a topic by their sequence number.
+ */
 @Component
 public class Publisher {
   private final RabbitTemplate rabbitTemplate;
-  private final TaskExecutor taskExecutor;
-  private ObjectMapper mapper;
+  private final OutboxEventRepository outboxEventRepository;
+  private final TopicSequenceRepository topicSequenceRepository;
+  private final ApplicationEventPublisher applicationEventPublisher;
+  private final ObjectMapper mapper;
+  private final ThreadPoolExecutor sender;
+  private final ScheduledExecutorService retries;
+  private final Semaphore inFlight;
+  private final Duration confirmTimeout;
+  private final int maxAttempts;
+  private final boolean binaryEnvelope;
 
   public MessageBatch batch() {
     return new MessageBatch(this.mapper);
   }
 
-  public Publisher(RabbitTemplate rabbitTemplate, TaskExecutor taskExecutor) {
+  public Publisher(
+      RabbitTemplate rabbitTemplate,
+      OutboxEventRepository outboxEventRepository,
+      TopicSequenceRepository topicSequenceRepository,
+      ApplicationEventPublisher applicationEventPublisher,
+      @Value("${workflow-manager.publisher.max-in-flight:1000}") int maxInFlight,
+      @Value("${workflow-manager.publisher.queue-capacity:10000}") int queueCapacity,
+      @Value("${workflow-manager.publisher.confirm-timeout:PT5S}") Duration confirmTimeout,
+      @Value("${workflow-manager.publisher.max-attempts:5}") int maxAttempts,
+      @Value("${workflow-manager.publisher.binary-envelope:false}") boolean binaryEnvelope) {
     this.rabbitTemplate = rabbitTemplate;
-    this.taskExecutor = taskExecutor;
+    this.outboxEventRepository = outboxEventRepository;
+    this.topicSequenceRepository = topicSequenceRepository;
+    this.applicationEventPublisher = applicationEventPublisher;
     this.mapper = new ObjectMapper();
     mapper.registerModule(new JavaTimeModule());
     mapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+
+    // when the queue is full the caller sends the batch itself, slowing down producers instead of
+    // growing without bound
+    this.sender =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(queueCapacity),
+            Thread.ofPlatform().name("publisher-", 0).factory(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    this.retries =
+        Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("publisher-retries-", 0).factory());
+    this.inFlight = new Semaphore(maxInFlight);
+    this.confirmTimeout = confirmTimeout;
+    this.maxAttempts = maxAttempts;
+    this.binaryEnvelope = binaryEnvelope;
   }
 
+  /**
+   * Writes the batch to the outbox in the caller's transaction, OutboxRelay sends it after commit.
+   * Nothing is sent if the transaction rolls back and nothing is lost if the broker is down.
+   */
   public void publish(MessageBatch batch) {
-    // TODO: good example for threading
-    for (String message : batch.messages)
-      this.rabbitTemplate.convertAndSend(
-          App.topicExchangeName, "workflow.entities.mutations", message);
+    ErrorUtils.serverAssertEq(
+        TransactionSynchronizationManager.isActualTransactionActive(),
+        true,
+        "Publisher.publish must be called in a transaction");
+
+    if (batch.pending.isEmpty() && batch.definitions.isEmpty()) return;
+
+    if (!batch.pending.isEmpty()) this.assignSequences(batch.pending);
+
+    List<OutboxEvent> events = new ArrayList<>();
+    for (PendingMessage pending : batch.pending) {
+      EncodedMessage message = batch.encode(pending);
+      events.add(new OutboxEvent(message.body(), message.contentType(), message.routingKey()));
+    }
+    // no body, the routing key is all the definition caches need
+    for (WorkflowDefinitionCache.Key key : batch.definitions)
+      events.add(
+          new OutboxEvent(
+              new byte[0],
+              MessageProperties.CONTENT_TYPE_TEXT_PLAIN,
+              Publisher.definitionRoutingKey(key.clientId(), key.workflowId())));
+
+    this.outboxEventRepository.saveAll(events);
+    this.applicationEventPublisher.publishEvent(new OutboxRelay.EventsWritten());
+    if (!batch.definitions.isEmpty())
+      this.applicationEventPublisher.publishEvent(
+          new WorkflowDefinitionCache.Changed(Set.copyOf(batch.definitions)));
+  }
+
+  /** One statement for all the topics of the batch, in the order of the messages. */
+  private void assignSequences(List<PendingMessage> pending) {
+    TreeMap<String, Long> counts = new TreeMap<>();
+    for (PendingMessage message : pending) counts.merge(message.topic(), 1L, Long::sum);
+
+    Map<String, Long> next = new HashMap<>();
+    for (Object[] row :
+        this.topicSequenceRepository.increment(
+            counts.keySet().toArray(String[]::new), counts.values().toArray(Long[]::new))) {
+      String topic = (String) row[0];
+      next.put(topic, ((Number) row[1]).longValue() - counts.get(topic) + 1);
+    }
+
+    for (PendingMessage message : pending) {
+      String topic = message.topic();
+      message.message().seqs = new LinkedHashMap<>();
+      message.message().seqs.put(topic, next.merge(topic, 1L, Long::sum) - 1);
+    }
+  }
+
+  /** Completes when all messages are confirmed, fails if any of them ran out of attempts. */
+  public CompletableFuture<Void> send(List<EncodedMessage> messages) {
+    List<CompletableFuture<Void>> confirmed = new ArrayList<>(messages.size());
+    for (int i = 0; i < messages.size(); i++) confirmed.add(new CompletableFuture<>());
+
+    this.sender.execute(
+        () -> {
+          for (int i = 0; i < messages.size(); i++)
+            this.attempt(messages.get(i), 1, confirmed.get(i));
+        });
+
+    return CompletableFuture.allOf(confirmed.toArray(CompletableFuture[]::new));
+  }
+
+  private void attempt(EncodedMessage message, int attempt, CompletableFuture<Void> confirmed) {
+    // blocks the sender while the window is full, confirms are received on rabbit's threads
+    this.inFlight.acquireUninterruptibly();
+
+    CorrelationData correlation = new CorrelationData();
+    correlation
+        .getFuture()
+        .orTimeout(this.confirmTimeout.toMillis(), TimeUnit.MILLISECONDS)
+        .whenComplete(
+            (confirm, err) -> {
+              this.inFlight.release();
+
+              if (err == null && confirm.isAck()) {
+                confirmed.complete(null);
+                return;
+              }
+
+              String reason = err != null ? err.toString() : confirm.getReason();
+              if (attempt >= this.maxAttempts) {
+                System.out.println(
+                    String.format(
+                        "message not confirmed after %s attempts (%s): %s bytes of %s",
+                        attempt, reason, message.body().length, message.contentType()));
+                confirmed.completeExceptionally(
+                    ErrorUtils.just500("Message not confirmed by the broker: " + reason));
+                return;
+              }
+
+              this.retries.schedule(
+                  () -> this.sender.execute(() -> this.attempt(message, attempt + 1, confirmed)),
+                  Publisher.backoffMillis(attempt),
+                  TimeUnit.MILLISECONDS);
+            });
+
+    MessageProperties properties = new MessageProperties();
+    properties.setContentType(message.contentType());
+    if (message.contentType().equals(MessageProperties.CONTENT_TYPE_TEXT_PLAIN))
+      properties.setContentEncoding(StandardCharsets.UTF_8.name());
+
+    try {
+      this.rabbitTemplate.send(
+          App.topicExchangeName,
+          message.routingKey(),
+          new org.springframework.amqp.core.Message(message.body(), properties),
+          correlation);
+    } catch (AmqpException err) {
+      correlation.getFuture().completeExceptionally(err);
+    }
+  }
+
+  private static long backoffMillis(int attempt) {
+    return Math.min(100L << (attempt - 1), 5_000L);
+  }
+
+  @PreDestroy
+  void shutdown() throws InterruptedException {
+    // give queued batches a chance to be confirmed before the connection goes away
+    this.sender.shutdown();
+    this.sender.awaitTermination(this.confirmTimeout.toMillis() * 2, TimeUnit.MILLISECONDS);
+    this.retries.shutdownNow();
+  }
+
+  /** Message ready to be sent, body is either text or a MutationEnvelope */
+  public record EncodedMessage(byte[] body, String contentType, String routingKey) {}
+
+  /**
+   * workflow.entities.mutations.clientId.workflowId, websocket nodes bind their queue to the
+   * clients their sessions are subscribed to.
+   */
+  public static String routingKey(UUID clientId, Integer workflowId) {
+    return String.format("%s.%s.%s", App.mutationsRoutingKey, clientId, workflowId);
+  }
+
+  /** workflow.definitions.clientId.workflowId, bound by the definitions queue of every node. */
+  public static String definitionRoutingKey(UUID clientId, Integer workflowId) {
+    return String.format("%s.%s.%s", App.definitionsRoutingKey, clientId, workflowId);
+  }
+
+  /** Part of a message key, clientId:refType[:id][:attr] */
+  private record Key(WorkflowAttributeReferenceType refType, Integer id, boolean attr) {
+    String topic(UUID clientId) {
+      StringBuilder topic = new StringBuilder().append(clientId).append(':').append(this.refType);
+      if (this.id != null) topic.append(':').append(this.id);
+      if (this.attr) topic.append(":attr");
+
+      return topic.toString();
+    }
+  }
+
+  /** Message added to a batch, encoded once its sequence number is known. */
+  private record PendingMessage(
+      Message message, List<Key> keys, UUID clientId, String routingKey) {
+    /** Topic of the object of the message, the one with a sequence number. */
+    String topic() {
+      return this.keys.getLast().topic(this.clientId);
+    }
+
+    /** null for the keys without a sequence number */
+    Long seq(Key key) {
+      return this.message.seqs.get(key.topic(this.clientId));
+    }
   }
 
   public class MessageBatch {
-    protected List<String> messages;
+    protected List<PendingMessage> pending;
+    protected Set<WorkflowDefinitionCache.Key> definitions;
     private ObjectMapper mapper;
 
     public MessageBatch(ObjectMapper mapper) {
-      this.messages = new ArrayList<>();
+      this.pending = new ArrayList<>();
+      this.definitions = new LinkedHashSet<>();
       this.mapper = mapper;
     }
 
+    /**
+     * The workflow, its attribute descriptions or its change state rules changed, every node evicts
+     * it from its WorkflowDefinitionCache once the batch is committed.
+     */
+    public void add_definition_change(Integer workflowId, AuthorizationDTO auth) {
+      this.definitions.add(new WorkflowDefinitionCache.Key(auth.clientId, workflowId));
+    }
+
     public void add_to_batch(
         ResponseWorkflow workflow, MessageType msgType, AuthorizationDTO auth, UUID eventId) {
-      String messageKey =
-          String.format(
-              "%s;%s;%s:%s",
-              auth.clientId,
-              WorkflowAttributeReferenceType.WORKFLOW,
-              WorkflowAttributeReferenceType.WORKFLOW,
-              workflow.id);
-
       this.add_to_batch_inner(
           workflow,
-          messageKey,
+          List.of(
+              new Key(WorkflowAttributeReferenceType.WORKFLOW, null, false),
+              new Key(WorkflowAttributeReferenceType.WORKFLOW, workflow.id, false)),
           msgType,
           WorkflowAttributeReferenceType.WORKFLOW,
           workflow.id,
+          workflow.id,
           auth,
           eventId);
     }
 
     public void add_to_batch(
         ResponseWorkflowState state, MessageType msgType, AuthorizationDTO auth, UUID eventId) {
-      String messageKey =
-          String.format(
-              "%s;%s:%s;%s:%s",
-              auth.clientId,
-              WorkflowAttributeReferenceType.WORKFLOW,
-              state.workflowId,
-              WorkflowAttributeReferenceType.WORKFLOW_STATE,
-              state.id);
-
       this.add_to_batch_inner(
           state,
-          messageKey,
+          List.of(
+              new Key(WorkflowAttributeReferenceType.WORKFLOW, state.workflowId, false),
+              new Key(WorkflowAttributeReferenceType.WORKFLOW_STATE, state.id, false)),
           msgType,
           WorkflowAttributeReferenceType.WORKFLOW_STATE,
           state.id,
+          state.workflowId,
           auth,
           eventId);
     }
 
     public void add_to_batch(
         ResponseWorkflowEntity entity, MessageType msgType, AuthorizationDTO auth, UUID eventId) {
-      String messageKey =
-          String.format(
-              "%s;%s:%s;%s:%s",
-              auth.clientId,
-              WorkflowAttributeReferenceType.WORKFLOW,
-              entity.workflowId,
-              WorkflowAttributeReferenceType.WORKFLOW_ENTITY,
-              entity.id);
-
       this.add_to_batch_inner(
           entity,
-          messageKey,
+          List.of(
+              new Key(WorkflowAttributeReferenceType.WORKFLOW, entity.workflowId, false),
+              new Key(WorkflowAttributeReferenceType.WORKFLOW_ENTITY, entity.id, false)),
           msgType,
           WorkflowAttributeReferenceType.WORKFLOW_ENTITY,
           entity.id,
+          entity.workflowId,
           auth,
           eventId);
     }
@@ -120,17 +360,15 @@ public class Publisher {
         MessageType msgType,
         AuthorizationDTO auth,
         UUID eventId) {
-      String messageKey =
-          String.format(
-              "%s;%s:%s",
-              auth.clientId, WorkflowAttributeReferenceType.WORKFLOW, description.parentWorkflowId);
-
       this.add_to_batch_inner(
           description,
-          messageKey,
+          List.of(
+              new Key(
+                  WorkflowAttributeReferenceType.WORKFLOW, description.parentWorkflowId, false)),
           msgType,
           WorkflowAttributeReferenceType.WORKFLOW,
           description.parentWorkflowId,
+          description.parentWorkflowId,
           auth,
           eventId);
     }
@@ -141,17 +379,24 @@ public class Publisher {
         MessageType msgType,
         AuthorizationDTO auth,
         UUID eventId) {
-      String messageKey = String.format("%s;%s:%s:attr", auth.clientId, refType, attr.baseEntityId);
-
-      this.add_to_batch_inner(attr, messageKey, msgType, refType, attr.baseEntityId, auth, eventId);
+      this.add_to_batch_inner(
+          attr,
+          List.of(new Key(refType, attr.baseEntityId, true)),
+          msgType,
+          refType,
+          attr.baseEntityId,
+          attr.parentWorkflowId,
+          auth,
+          eventId);
     }
 
     private <T> void add_to_batch_inner(
         T obj,
-        String messageKey,
+        List<Key> keys,
         MessageType msgType,
         WorkflowAttributeReferenceType refType,
         Integer baseEntityId,
+        Integer workflowId,
         AuthorizationDTO auth,
         UUID eventId) {
       Message message = new Message();
@@ -164,13 +409,54 @@ public class Publisher {
       message.userId = auth.userId;
       message.eventId = eventId;
 
+      this.pending.add(
+          new PendingMessage(
+              message, keys, auth.clientId, Publisher.routingKey(auth.clientId, workflowId)));
+    }
+
+    private EncodedMessage encode(PendingMessage pending) {
+      byte[] payload;
       try {
-        System.out.println(this.mapper.writeValueAsString(message));
-        this.messages.add(
-            String.format("%s %s", messageKey, this.mapper.writeValueAsString(message)));
+        payload = this.mapper.writeValueAsBytes(pending.message());
       } catch (JsonProcessingException err) {
         throw ErrorUtils.just500("Failed to serialize object: " + err.toString());
       }
+
+      if (Publisher.this.binaryEnvelope) {
+        MutationEnvelope.Encoder encoder = MutationEnvelope.encoder(pending.clientId());
+        for (Key key : pending.keys()) {
+          Long seq = pending.seq(key);
+          if (seq == null) encoder.key(key.refType().name(), key.id(), key.attr());
+          else encoder.key(key.refType().name(), key.id(), key.attr(), seq);
+        }
+
+        return new EncodedMessage(
+            encoder.encode(payload), MutationEnvelope.CONTENT_TYPE, pending.routingKey());
+      }
+
+      return new EncodedMessage(
+          MessageBatch.encodeText(pending, payload),
+          MessageProperties.CONTENT_TYPE_TEXT_PLAIN,
+          pending.routingKey());
+    }
+
+    /** "clientId;refType[:id][:attr][@seq];... json" */
+    private static byte[] encodeText(PendingMessage pending, byte[] payload) {
+      StringBuilder messageKey = new StringBuilder().append(pending.clientId());
+      for (Key key : pending.keys()) {
+        messageKey.append(';').append(key.refType());
+        if (key.id() != null) messageKey.append(':').append(key.id());
+        if (key.attr()) messageKey.append(":attr");
+        Long seq = pending.seq(key);
+        if (seq != null) messageKey.append('@').append(seq);
+      }
+      messageKey.append(' ');
+
+      byte[] keyBytes = messageKey.toString().getBytes(StandardCharsets.UTF_8);
+      byte[] body = Arrays.copyOf(keyBytes, keyBytes.length + payload.length);
+      System.arraycopy(payload, 0, body, keyBytes.length, payload.length);
+
+      return body;
     }
   }
 
@@ -183,6 +469,8 @@ public class Publisher {
     public UUID clientId;
     public UUID userId;
     public UUID eventId;
+    /** topic of the object -> sequence number of this message in it, see assignSequences */
+    public Map<String, Long> seqs;
   }
 
   public enum MessageType {
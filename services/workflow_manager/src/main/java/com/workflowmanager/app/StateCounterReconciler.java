@@ -0,0 +1,125 @@
+package com.workflowmanager.app;
+
+import com.workflowmanager.app.repositories.WorkflowEntityRepository;
+import com.workflowmanager.app.repositories.WorkflowStateRepository;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Counters are kept up to date by relative updates in the same transaction as creations and moves,
+ * this job fixes any drift (rows changed by hand, states created before the counter existed).
+ *
+ * <p>A single node runs it, the one holding the advisory lock for the whole pass. Each state is
+ * counted without locking its row: the counter and the count are read from the same snapshot, the
+ * drift between them is added with a relative update so moves committed since are kept. States
+ * whose lastCurrentEntitiesChange didn't move since this node last counted them are skipped, every
+ * state is counted again when the pass moves to another node and every full-pass-every passes, so
+ * counters changed by hand (which doesn't move lastCurrentEntitiesChange) are fixed too.
+ */
+@Component
+@Profile("!openapi")
+public class StateCounterReconciler {
+  // pg advisory lock held during a pass, any key unique in the database
+  private static final long RECONCILE_LOCK = 0x636f756e74657273L;
+
+  private final WorkflowStateRepository workflowStateRepository;
+  private final WorkflowEntityRepository workflowEntityRepository;
+  private final TransactionTemplate lockTransaction;
+  private final TransactionTemplate snapshotTransaction;
+  private final TransactionTemplate writeTransaction;
+  private final int fullPassEvery;
+
+  // state id -> lastCurrentEntitiesChange when it was last counted
+  private final Map<Integer, Instant> counted = new HashMap<>();
+  // passes since the last one that counted every state
+  private int passes = 0;
+
+  public StateCounterReconciler(
+      WorkflowStateRepository workflowStateRepository,
+      WorkflowEntityRepository workflowEntityRepository,
+      PlatformTransactionManager transactionManager,
+      @Value("${workflow-manager.state-counters.full-pass-every:12}") int fullPassEvery) {
+    this.workflowStateRepository = workflowStateRepository;
+    this.workflowEntityRepository = workflowEntityRepository;
+    this.fullPassEvery = Math.max(fullPassEvery, 1);
+
+    this.lockTransaction = new TransactionTemplate(transactionManager);
+    this.lockTransaction.setReadOnly(true);
+
+    this.snapshotTransaction = new TransactionTemplate(transactionManager);
+    this.snapshotTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.snapshotTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    this.snapshotTransaction.setReadOnly(true);
+
+    this.writeTransaction = new TransactionTemplate(transactionManager);
+    this.writeTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+  }
+
+  @Scheduled(fixedDelayString = "${workflow-manager.state-counters.reconcile-interval:PT10M}")
+  public void reconcile() {
+    Integer fixed =
+        this.lockTransaction.execute(
+            status ->
+                this.workflowStateRepository.tryLock(RECONCILE_LOCK) ? this.reconcileAll() : null);
+
+    if (fixed == null) {
+      // another node has it, start over when this one gets it again
+      this.counted.clear();
+      this.passes = 0;
+      return;
+    }
+
+    System.out.println(String.format("state counters reconciled, %s fixed", fixed));
+  }
+
+  private int reconcileAll() {
+    if (this.passes++ % this.fullPassEvery == 0) this.counted.clear();
+
+    int fixed = 0;
+    Set<Integer> stateIds = new HashSet<>();
+
+    for (Object[] row : this.workflowStateRepository.listLastCurrentEntitiesChanges()) {
+      Integer stateId = (Integer) row[0];
+      Instant lastChange = (Instant) row[1];
+      stateIds.add(stateId);
+
+      if (this.counted.containsKey(stateId)
+          && Objects.equals(this.counted.get(stateId), lastChange)) continue;
+
+      Long drift = this.snapshotTransaction.execute(status -> this.drift(stateId));
+      if (drift == null) continue;
+
+      if (drift != 0) {
+        this.writeTransaction.executeWithoutResult(
+            status -> this.workflowStateRepository.correctTotalEntities(stateId, drift));
+        fixed++;
+      }
+      this.counted.put(stateId, lastChange);
+    }
+
+    // deleted states
+    this.counted.keySet().retainAll(stateIds);
+
+    return fixed;
+  }
+
+  /** Count minus counter in one snapshot, null if the state doesn't exist anymore. */
+  private Long drift(Integer stateId) {
+    Optional<Long> current = this.workflowStateRepository.getTotalEntities(stateId);
+    if (current.isEmpty()) return null;
+
+    return this.workflowEntityRepository.countByState(stateId) - current.get();
+  }
+}
@@ -0,0 +1,53 @@
+package com.workflowmanager.app;
+
+import com.workflowmanager.app.repositories.TopicSequenceRepository;
+import java.time.Duration;
+import java.time.Instant;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * topic_sequences gets a row for every object that was ever published. Rows of topics without
+ * messages for the retention are deleted and the topic starts again from 1 if it's published
+ * later. The retention must be longer than ws-workflow-manager.replay.latest-seq-ttl, websocket
+ * nodes have forgotten the old numbers of the topic by then and ask clients that resume from them
+ * to load it again.
+ */
+@Component
+@Profile("!openapi")
+public class TopicSequenceCleaner {
+  private static final int BATCH_SIZE = 1000;
+
+  private final TopicSequenceRepository topicSequenceRepository;
+  private final TransactionTemplate transactionTemplate;
+  private final Duration retention;
+
+  public TopicSequenceCleaner(
+      TopicSequenceRepository topicSequenceRepository,
+      TransactionTemplate transactionTemplate,
+      @Value("${workflow-manager.topic-sequences.retention:P7D}") Duration retention) {
+    this.topicSequenceRepository = topicSequenceRepository;
+    this.transactionTemplate = transactionTemplate;
+    this.retention = retention;
+  }
+
+  /** Short transactions of BATCH_SIZE rows, other nodes running it skip the rows locked here. */
+  @Scheduled(fixedDelayString = "${workflow-manager.topic-sequences.cleanup-interval:PT1H}")
+  public void clean() {
+    Instant before = Instant.now().minus(this.retention);
+
+    int deleted = 0;
+    Integer batch;
+    do {
+      batch =
+          this.transactionTemplate.execute(
+              status -> this.topicSequenceRepository.deleteUnusedSince(before, BATCH_SIZE));
+      deleted += batch == null ? 0 : batch;
+    } while (batch != null && batch == BATCH_SIZE);
+
+    System.out.println(String.format("topic sequences cleaned, %s deleted", deleted));
+  }
+}
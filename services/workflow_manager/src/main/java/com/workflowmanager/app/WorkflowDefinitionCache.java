@@ -0,0 +1,147 @@
+package com.workflowmanager.app;
+
+import com.workflowmanager.app.controllers.responses.ResponseAttributeDescription;
+import com.workflowmanager.app.controllers.responses.ResponseChangeStateRules;
+import com.workflowmanager.app.controllers.responses.ResponseWorkflow;
+import com.workflowmanager.app.core.BoundedCache;
+import com.workflowmanager.app.repositories.ChangeStateRulesRepository;
+import com.workflowmanager.app.repositories.WorkflowAttributeDescriptionRepository;
+import com.workflowmanager.app.repositories.WorkflowRepository;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Definition of a workflow (the workflow, its attribute descriptions and the change state rules of
+ * its states) by (clientId, workflowId), read once and then served without going to the database.
+ *
+ * <p>Mutations of a definition add a definition change to their Publisher batch (see
+ * MessageBatch.add_definition_change). It evicts the entry here after the commit and is sent
+ * through the outbox like the other messages of the batch, every node evicts it when the message
+ * gets to its definitions queue. Other nodes can serve the old definition until then. The queue is
+ * deleted with the connection, messages sent while it was down are lost so everything is evicted
+ * when the connection is created again.
+ *
+ * <p>States aren't part of it, their totalEntities changes with every move of an entity.
+ */
+@Component
+public class WorkflowDefinitionCache {
+  private final WorkflowRepository workflowRepository;
+  private final WorkflowAttributeDescriptionRepository attributeDescriptionRepository;
+  private final ChangeStateRulesRepository changeStateRulesRepository;
+  private final TransactionTemplate readOnlyTransaction;
+  private final BoundedCache<Key, Definition> definitions;
+  // incremented by every eviction, a definition read before one of them isn't cached
+  private final AtomicLong evictions = new AtomicLong();
+
+  public WorkflowDefinitionCache(
+      WorkflowRepository workflowRepository,
+      WorkflowAttributeDescriptionRepository attributeDescriptionRepository,
+      ChangeStateRulesRepository changeStateRulesRepository,
+      PlatformTransactionManager transactionManager,
+      ConnectionFactory connectionFactory,
+      @Value("${workflow-manager.definition-cache.max-size:10000}") int maxSize) {
+    this.workflowRepository = workflowRepository;
+    this.attributeDescriptionRepository = attributeDescriptionRepository;
+    this.changeStateRulesRepository = changeStateRulesRepository;
+    this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+    this.readOnlyTransaction.setReadOnly(true);
+    this.definitions = new BoundedCache<>(maxSize);
+
+    connectionFactory.addConnectionListener(connection -> this.evictAll());
+  }
+
+  /**
+   * Empty if the workflow doesn't exist or belongs to another client. Inside a transaction the
+   * definition is read but not cached, it could have changes that aren't committed yet.
+   */
+  public Optional<Definition> get(UUID clientId, Integer workflowId) {
+    Key key = new Key(clientId, workflowId);
+
+    Definition definition = this.definitions.get(key);
+    if (definition != null) return Optional.of(definition);
+
+    boolean inTransaction = TransactionSynchronizationManager.isActualTransactionActive();
+    long evictionsBefore = this.evictions.get();
+    Optional<Definition> loaded = this.readOnlyTransaction.execute(status -> this.load(key));
+    if (loaded.isPresent() && !inTransaction && this.evictions.get() == evictionsBefore)
+      this.definitions.put(key, loaded.get());
+
+    return loaded;
+  }
+
+  /** Definitions changed by a batch, published by Publisher.publish. */
+  public record Changed(Set<Key> keys) {}
+
+  @TransactionalEventListener
+  public void onChanged(Changed changed) {
+    for (Key key : changed.keys()) this.evict(key);
+  }
+
+  @RabbitListener(queues = "#{definitionsQueue.name}")
+  public void receiveDefinitionChange(Message message) {
+    Key key = Key.ofRoutingKey(message.getMessageProperties().getReceivedRoutingKey());
+    if (key == null) return;
+
+    this.evict(key);
+  }
+
+  private void evict(Key key) {
+    this.evictions.incrementAndGet();
+    this.definitions.remove(key);
+  }
+
+  private void evictAll() {
+    this.evictions.incrementAndGet();
+    this.definitions.removeIf((key, definition) -> true);
+  }
+
+  private Optional<Definition> load(Key key) {
+    return this.workflowRepository
+        .getByIdAndClientId(key.workflowId(), key.clientId())
+        .map(
+            workflow ->
+                new Definition(
+                    new ResponseWorkflow(workflow),
+                    List.copyOf(
+                        this.attributeDescriptionRepository.listResponsesByWorkflowId(
+                            workflow.getId())),
+                    List.copyOf(
+                        this.changeStateRulesRepository.listResponsesByWorkflowId(
+                            workflow.getId()))));
+  }
+
+  public record Key(UUID clientId, Integer workflowId) {
+    /** workflow.definitions.clientId.workflowId, null if it isn't one */
+    static Key ofRoutingKey(String routingKey) {
+      if (routingKey == null || !routingKey.startsWith(App.definitionsRoutingKey + "."))
+        return null;
+
+      String[] parts = routingKey.substring(App.definitionsRoutingKey.length() + 1).split("\\.");
+      if (parts.length != 2) return null;
+
+      try {
+        return new Key(UUID.fromString(parts[0]), Integer.valueOf(parts[1]));
+      } catch (IllegalArgumentException err) {
+        return null;
+      }
+    }
+  }
+
+  /** Shared by every reader, the responses in it must not be modified. */
+  public record Definition(
+      ResponseWorkflow workflow,
+      List<ResponseAttributeDescription> descriptions,
+      List<ResponseChangeStateRules> rules) {}
+}
@@ -2,6 +2,7 @@ package com.workflowmanager.app.controllers;
 
 import com.workflowmanager.app.App;
 import com.workflowmanager.app.Publisher;
+import com.workflowmanager.app.WorkflowDefinitionCache;
 import com.workflowmanager.app.controllers.requests.RequestNewAttribute;
 import com.workflowmanager.app.controllers.requests.RequestNewAttributeDescription;
 import com.workflowmanager.app.controllers.requests.RequestNewWorkflow;
@@ -19,6 +20,7 @@ import com.workflowmanager.app.domains.WorkflowAttribute;
 import com.workflowmanager.app.domains.WorkflowAttributeDescription;
 import com.workflowmanager.app.domains.WorkflowAttributeDescription.WorkflowAttributeReferenceType;
 import com.workflowmanager.app.domains.WorkflowState;
+import com.workflowmanager.app.domains.state.ChangeStateRulesCEL;
 import com.workflowmanager.app.domains.workflow.WorkflowConfig;
 import com.workflowmanager.app.domains.workflow.WorkflowConfigDTO;
 import com.workflowmanager.app.repositories.WorkflowAttributeDescriptionRepository;
@@ -29,9 +31,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.stream.Collectors;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -48,6 +50,7 @@ public class WorkflowController {
   private final WorkflowStateRepository workflowStateRepository;
   private final WorkflowAttributeDescriptionRepository attributeDescriptionRepository;
   private final WorkflowAttributeRepository workflowAttributeRepository;
+  private final WorkflowDefinitionCache definitionCache;
   private final Publisher publisher;
 
   public WorkflowController(
@@ -55,11 +58,13 @@ public class WorkflowController {
       WorkflowStateRepository workflowStateRepository,
       WorkflowAttributeDescriptionRepository attributeDescriptionRepository,
       WorkflowAttributeRepository workflowAttributeRepository,
+      WorkflowDefinitionCache definitionCache,
       Publisher publisher) {
     this.workflowRepository = workflowRepository;
     this.workflowStateRepository = workflowStateRepository;
     this.attributeDescriptionRepository = attributeDescriptionRepository;
     this.workflowAttributeRepository = workflowAttributeRepository;
+    this.definitionCache = definitionCache;
     this.publisher = publisher;
   }
 
@@ -69,9 +74,8 @@ public class WorkflowController {
       @RequestHeader Map<String, String> headers, @PathVariable("workflowId") Integer workflowId) {
     AuthorizationDTO auth = new AuthorizationDTO(headers);
 
-    return new ResponseWorkflow(
-        ErrorUtils.onEmpty404(
-            this.workflowRepository.getByIdAndClientId(workflowId, auth.clientId), workflowId));
+    return ErrorUtils.onEmpty404(this.definitionCache.get(auth.clientId, workflowId), workflowId)
+        .workflow();
   }
 
   @GetMapping("workflows")
@@ -79,13 +83,12 @@ public class WorkflowController {
   public List<ResponseWorkflow> list(@RequestHeader Map<String, String> headers) {
     AuthorizationDTO auth = new AuthorizationDTO(headers);
 
-    return this.workflowRepository.list(auth.clientId).stream()
-        .map(workflow -> new ResponseWorkflow(workflow))
-        .collect(Collectors.toList());
+    return this.workflowRepository.list(auth.clientId);
   }
 
   @PostMapping("workflows")
   @ResponseBody
+  @Transactional
   public ResponseEntity<ResponseWorkflow> createWorkflow(
       @RequestHeader Map<String, String> headers, @RequestBody RequestNewWorkflow newWorkflow) {
     AuthorizationDTO auth = new AuthorizationDTO(headers);
@@ -113,6 +116,7 @@ public class WorkflowController {
 
   @PutMapping("workflows/{workflowId}/config")
   @ResponseBody
+  @Transactional
   public ResponseEntity<ResponseWorkflow> setConfig(
       @RequestHeader Map<String, String> headers,
       @PathVariable("workflowId") Integer workflowId,
@@ -151,6 +155,7 @@ public class WorkflowController {
     UUID eventId = UUID.randomUUID();
 
     batch.add_to_batch(ret, Publisher.MessageType.UPDATE, auth, eventId);
+    batch.add_definition_change(workflow.getId(), auth);
 
     this.publisher.publish(batch);
 
@@ -159,6 +164,7 @@ public class WorkflowController {
 
   @PostMapping("workflows/{workflowId}/attribute-descriptions")
   @ResponseBody
+  @Transactional
   public ResponseEntity<ResponseAttributeDescription> createAttributeDescription(
       @RequestHeader Map<String, String> headers,
       @PathVariable("workflowId") Integer workflowId,
@@ -180,6 +186,7 @@ public class WorkflowController {
         new WorkflowAttributeDescription(dto, workflow);
 
     this.attributeDescriptionRepository.save(attributeDescription);
+    ChangeStateRulesCEL.evictWorkflow(workflow.getId());
 
     ResponseAttributeDescription ret =
         new ResponseAttributeDescription(
@@ -192,6 +199,7 @@ public class WorkflowController {
     UUID eventId = UUID.randomUUID();
 
     batch.add_to_batch(ret, Publisher.MessageType.UPDATE, auth, eventId);
+    batch.add_definition_change(workflow.getId(), auth);
 
     this.publisher.publish(batch);
 
@@ -204,17 +212,13 @@ public class WorkflowController {
       @RequestHeader Map<String, String> headers, @PathVariable("workflowId") Integer workflowId) {
     AuthorizationDTO auth = new AuthorizationDTO(headers);
 
-    // authorize
-    ErrorUtils.onEmpty404(
-        this.workflowRepository.getByIdAndClientId(workflowId, auth.clientId), workflowId);
-
-    return this.attributeDescriptionRepository.listByWorkflowId(workflowId).stream()
-        .map(description -> new ResponseAttributeDescription(description))
-        .collect(Collectors.toList());
+    return ErrorUtils.onEmpty404(this.definitionCache.get(auth.clientId, workflowId), workflowId)
+        .descriptions();
   }
 
   @PutMapping("workflows/{workflowId}/attributes/{attributeName}")
   @ResponseBody
+  @Transactional
   public ResponseEntity<ResponseAttribute> setAttribute(
       @RequestHeader Map<String, String> headers,
       @PathVariable("workflowId") Integer workflowId,
@@ -280,14 +284,9 @@ public class WorkflowController {
     AuthorizationDTO auth = new AuthorizationDTO(headers);
 
     // authorize
-    Workflow workflow =
-        ErrorUtils.onEmpty404(
-            this.workflowRepository.getByIdAndClientId(workflowId, auth.clientId), workflowId);
+    ErrorUtils.onEmpty404(this.definitionCache.get(auth.clientId, workflowId), workflowId);
 
-    return this.workflowAttributeRepository
-        .list(workflow.getId(), WorkflowAttributeReferenceType.WORKFLOW)
-        .stream()
-        .map(attr -> new ResponseAttribute(attr))
-        .collect(Collectors.toList());
+    return this.workflowAttributeRepository.listResponses(
+        workflowId, WorkflowAttributeReferenceType.WORKFLOW);
   }
 }
@@ -1,10 +1,15 @@
 package com.workflowmanager.app.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.workflowmanager.app.App;
 import com.workflowmanager.app.Publisher;
+import com.workflowmanager.app.controllers.requests.RequestBulkMoveState;
+import com.workflowmanager.app.controllers.requests.RequestEntityMoveState;
 import com.workflowmanager.app.controllers.requests.RequestNewAttribute;
 import com.workflowmanager.app.controllers.requests.RequestNewWorkflowEntity;
 import com.workflowmanager.app.controllers.responses.ResponseAttribute;
+import com.workflowmanager.app.controllers.responses.ResponseBulkMoveState;
+import com.workflowmanager.app.controllers.responses.ResponseBulkMoveStateItem;
 import com.workflowmanager.app.controllers.responses.ResponseEntityChangeState;
 import com.workflowmanager.app.controllers.responses.ResponseWorkflowEntity;
 import com.workflowmanager.app.controllers.responses.ResponseWorkflowState;
@@ -18,19 +23,38 @@ import com.workflowmanager.app.domains.WorkflowAttributeDescription;
 import com.workflowmanager.app.domains.WorkflowAttributeDescription.WorkflowAttributeReferenceType;
 import com.workflowmanager.app.domains.WorkflowEntity;
 import com.workflowmanager.app.domains.WorkflowState;
+import com.workflowmanager.app.domains.state.ChangeStateRules;
+import com.workflowmanager.app.domains.state.ChangeStateRulesId;
+import com.workflowmanager.app.domains.state.TransitionContext;
+import com.workflowmanager.app.repositories.ChangeStateRulesRepository;
+import com.workflowmanager.app.repositories.TransitionContextRepository;
 import com.workflowmanager.app.repositories.WorkflowAttributeDescriptionRepository;
 import com.workflowmanager.app.repositories.WorkflowAttributeRepository;
 import com.workflowmanager.app.repositories.WorkflowEntityRepository;
 import com.workflowmanager.app.repositories.WorkflowRepository;
 import com.workflowmanager.app.repositories.WorkflowStateRepository;
 import io.swagger.v3.oas.annotations.Operation;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
@@ -39,17 +63,29 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-@CrossOrigin
+@CrossOrigin(exposedHeaders = WorkflowEntityController.NEXT_AFTER_ID_HEADER)
 @Controller
 public class WorkflowEntityController {
+  public static final int MAX_BULK_MOVES = 10_000;
+  public static final int MAX_PAGE_SIZE = 1_000;
+  // afterId of the next page, only sent when the page is full
+  public static final String NEXT_AFTER_ID_HEADER = "Next-After-Id";
+
   private final WorkflowEntityRepository workflowEntityRepository;
   private final WorkflowRepository workflowRepository;
   private final WorkflowStateRepository workflowStateRepository;
   private final WorkflowAttributeDescriptionRepository attributeDescriptionRepository;
   private final WorkflowAttributeRepository workflowAttributeRepository;
+  private final TransitionContextRepository transitionContextRepository;
+  private final ChangeStateRulesRepository changeStateRulesRepository;
   private final Publisher publisher;
+  private final ObjectMapper mapper;
+  private final TransactionTemplate readOnlyTransaction;
 
   public WorkflowEntityController(
       WorkflowEntityRepository workflowEntityRepository,
@@ -57,13 +93,22 @@ public class WorkflowEntityController {
       WorkflowStateRepository workflowStateRepository,
       WorkflowAttributeDescriptionRepository attributeDescriptionRepository,
       WorkflowAttributeRepository workflowAttributeRepository,
-      Publisher publisher) {
+      TransitionContextRepository transitionContextRepository,
+      ChangeStateRulesRepository changeStateRulesRepository,
+      Publisher publisher,
+      ObjectMapper mapper,
+      PlatformTransactionManager transactionManager) {
     this.workflowEntityRepository = workflowEntityRepository;
     this.workflowRepository = workflowRepository;
     this.workflowStateRepository = workflowStateRepository;
     this.attributeDescriptionRepository = attributeDescriptionRepository;
     this.workflowAttributeRepository = workflowAttributeRepository;
+    this.transitionContextRepository = transitionContextRepository;
+    this.changeStateRulesRepository = changeStateRulesRepository;
     this.publisher = publisher;
+    this.mapper = mapper;
+    this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+    this.readOnlyTransaction.setReadOnly(true);
   }
 
   @GetMapping("workflow-entities/{workflowEntityId}")
@@ -78,35 +123,127 @@ public class WorkflowEntityController {
             this.workflowEntityRepository.getByIdAndClientId(workflowEntityId, auth.clientId)));
   }
 
-  @Operation(description = "List all child entities of a workflow")
+  @Operation(
+      description =
+          "List a page of child entities of a workflow ordered by id, limit defaults to the max"
+              + " page size. The next page is requested with afterId set to the Next-After-Id"
+              + " header, sent while pages are full. All of them are streamed as NDJSON")
   @GetMapping("workflows/{workflowId}/workflow-entities")
-  @ResponseBody
-  public List<ResponseWorkflowEntity> listByWorkflowId(
+  public ResponseEntity<List<ResponseWorkflowEntity>> listByWorkflowId(
+      @RequestHeader Map<String, String> headers,
+      @PathVariable("workflowId") Integer workflowId,
+      @RequestParam(name = "afterId", required = false) Integer afterId,
+      @RequestParam(name = "limit", required = false) Integer limit) {
+    AuthorizationDTO auth = new AuthorizationDTO(headers);
+
+    Limit pageLimit = WorkflowEntityController.pageLimit(limit);
+    return WorkflowEntityController.page(
+        this.workflowEntityRepository.listByWorkflowAndClient(
+            workflowId, auth.clientId, WorkflowEntityController.pageStart(afterId), pageLimit),
+        pageLimit);
+  }
+
+  @Operation(description = "Stream all child entities of a workflow as NDJSON, ordered by id")
+  @GetMapping(
+      value = "workflows/{workflowId}/workflow-entities",
+      produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> streamByWorkflowId(
       @RequestHeader Map<String, String> headers, @PathVariable("workflowId") Integer workflowId) {
     AuthorizationDTO auth = new AuthorizationDTO(headers);
 
-    return this.workflowEntityRepository.listByWorkflowAndClient(workflowId, auth.clientId).stream()
-        .map(entity -> new ResponseWorkflowEntity(entity))
-        .collect(Collectors.toList());
+    return this.ndjson(
+        () -> this.workflowEntityRepository.streamByWorkflowAndClient(workflowId, auth.clientId));
   }
 
+  @Operation(
+      description =
+          "List a page of entities in a state ordered by id, limit defaults to the max page size."
+              + " The next page is requested with afterId set to the Next-After-Id header, sent"
+              + " while pages are full. All of them are streamed as NDJSON")
   @GetMapping("workflow-states/{workflowStateId}/workflow-entities")
-  @ResponseBody
-  public List<ResponseWorkflowEntity> listEntityIdsByStateId(
+  public ResponseEntity<List<ResponseWorkflowEntity>> listEntityIdsByStateId(
+      @RequestHeader Map<String, String> headers,
+      @PathVariable("workflowStateId") Integer workflowStateId,
+      @RequestParam(name = "afterId", required = false) Integer afterId,
+      @RequestParam(name = "limit", required = false) Integer limit) {
+    AuthorizationDTO auth = new AuthorizationDTO(headers);
+
+    Limit pageLimit = WorkflowEntityController.pageLimit(limit);
+    return WorkflowEntityController.page(
+        this.workflowEntityRepository.listByStateAndClient(
+            workflowStateId, auth.clientId, WorkflowEntityController.pageStart(afterId), pageLimit),
+        pageLimit);
+  }
+
+  @Operation(description = "Stream all entities in a state as NDJSON, ordered by id")
+  @GetMapping(
+      value = "workflow-states/{workflowStateId}/workflow-entities",
+      produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> streamByStateId(
       @RequestHeader Map<String, String> headers,
       @PathVariable("workflowStateId") Integer workflowStateId) {
     AuthorizationDTO auth = new AuthorizationDTO(headers);
 
-    return this.workflowEntityRepository
-        .listByStateAndClient(workflowStateId, auth.clientId)
-        .stream()
-        .map(entity -> new ResponseWorkflowEntity(entity))
-        .collect(Collectors.toList());
+    return this.ndjson(
+        () -> this.workflowEntityRepository.streamByStateAndClient(workflowStateId, auth.clientId));
+  }
+
+  private static Integer pageStart(Integer afterId) {
+    // ids are generated starting at 1
+    return afterId == null ? 0 : afterId;
+  }
+
+  /** Unbounded reads are streamed, a list without limit is a page of the max size */
+  private static Limit pageLimit(Integer limit) {
+    if (limit == null) return Limit.of(WorkflowEntityController.MAX_PAGE_SIZE);
+
+    ErrorUtils.assertEq(
+        limit > 0 && limit <= WorkflowEntityController.MAX_PAGE_SIZE,
+        true,
+        String.format("limit must be between 1 and %s", WorkflowEntityController.MAX_PAGE_SIZE));
+
+    return Limit.of(limit);
+  }
+
+  /** A full page may not be the last one, the next one starts after its last id. */
+  private static ResponseEntity<List<ResponseWorkflowEntity>> page(
+      List<ResponseWorkflowEntity> entities, Limit limit) {
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+    if (!entities.isEmpty() && entities.size() == limit.max())
+      response.header(NEXT_AFTER_ID_HEADER, entities.getLast().id.toString());
+
+    return response.body(entities);
+  }
+
+  /**
+   * Writes one entity per line while they're read from the cursor. The query runs in its own read
+   * only transaction since the body is written after the handler returns.
+   */
+  private ResponseEntity<StreamingResponseBody> ndjson(
+      Supplier<Stream<ResponseWorkflowEntity>> query) {
+    StreamingResponseBody body =
+        out ->
+            this.readOnlyTransaction.executeWithoutResult(
+                status -> {
+                  try (Stream<ResponseWorkflowEntity> entities = query.get()) {
+                    Iterator<ResponseWorkflowEntity> it = entities.iterator();
+                    while (it.hasNext()) {
+                      out.write(this.mapper.writeValueAsBytes(it.next()));
+                      out.write('\n');
+                    }
+                    out.flush();
+                  } catch (IOException err) {
+                    throw new UncheckedIOException(err);
+                  }
+                });
+
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
   }
 
   @Operation(description = "Create an entity for a workflow")
   @PostMapping("workflows/{workflowId}/workflow-entities")
   @ResponseBody
+  @Transactional
   public ResponseEntity<ResponseWorkflowEntity> createEntity(
       @RequestHeader Map<String, String> headers,
       @PathVariable("workflowId") Integer workflowId,
@@ -121,6 +258,7 @@ public class WorkflowEntityController {
 
     WorkflowEntity workflowEntity = new WorkflowEntity(dto, workflow);
     this.workflowEntityRepository.save(workflowEntity);
+    this.workflowStateRepository.addToTotalEntities(workflowEntity.getCurrentStateId(), 1L);
 
     ResponseWorkflowEntity ret =
         new ResponseWorkflowEntity(
@@ -141,6 +279,7 @@ public class WorkflowEntityController {
 
   @PutMapping("workflow-entities/{entityId}/attributes/{attributeName}")
   @ResponseBody
+  @Transactional
   public ResponseEntity<ResponseAttribute> setAttribute(
       @RequestHeader Map<String, String> headers,
       @PathVariable("entityId") Integer entityId,
@@ -206,72 +345,38 @@ public class WorkflowEntityController {
   @Operation(description = "Try moving an entity to a new state")
   @PatchMapping("workflow-entities/{entityId}/workflow-states/{newStateId}")
   @ResponseBody
+  @Transactional
   public ResponseEntity<ResponseEntityChangeState> moveState(
       @RequestHeader Map<String, String> headers,
       @PathVariable("entityId") Integer entityId,
       @PathVariable("newStateId") Integer newStateId) {
     AuthorizationDTO auth = new AuthorizationDTO(headers);
 
-    WorkflowEntity entity =
+    TransitionContext context =
         ErrorUtils.onEmpty404(
-            this.workflowEntityRepository.getByIdAndClientId(entityId, auth.clientId), entityId);
-    Workflow workflow =
-        ErrorUtils.onEmpty404(
-            this.workflowRepository.getByIdAndClientId(entity.getWorkflowId(), auth.clientId),
-            entityId);
-    WorkflowState curState =
-        ErrorUtils.onEmpty404(
-            this.workflowStateRepository.getByIdAndClientId(
-                entity.getCurrentStateId(), auth.clientId),
-            entity.getCurrentStateId());
-    WorkflowState nextState =
-        ErrorUtils.onEmpty404(
-            this.workflowStateRepository.getByIdAndClientId(newStateId, auth.clientId), newStateId);
-
-    List<WorkflowAttributeDescription> descriptions =
-        this.attributeDescriptionRepository.listByWorkflowId(workflow.getId());
-    List<WorkflowAttribute> workflowAttrs =
-        this.workflowAttributeRepository.list(
-            workflow.getId(), WorkflowAttributeReferenceType.WORKFLOW);
-    List<WorkflowAttribute> entityAttrs =
-        this.workflowAttributeRepository.list(
-            entity.getId(), WorkflowAttributeReferenceType.WORKFLOW_ENTITY);
-    List<WorkflowAttribute> fromStateAttrs =
-        this.workflowAttributeRepository.list(
-            curState.getId(), WorkflowAttributeReferenceType.WORKFLOW_STATE);
-    List<WorkflowAttribute> toStateAttrs =
-        this.workflowAttributeRepository.list(
-            nextState.getId(), WorkflowAttributeReferenceType.WORKFLOW_STATE);
-
-    WorkflowState.moveEntity(
-        curState,
-        nextState,
-        entity,
-        descriptions,
-        workflowAttrs,
-        entityAttrs,
-        fromStateAttrs,
-        toStateAttrs);
-
-    this.workflowStateRepository.save(curState);
-    this.workflowStateRepository.save(nextState);
-    this.workflowEntityRepository.save(entity);
-
-    ResponseWorkflowEntity retEntity =
-        new ResponseWorkflowEntity(
-            this.workflowEntityRepository
-                .getByIdAndClientId(entity.getId(), auth.clientId)
-                .orElseThrow());
-    ResponseWorkflowState from =
-        new ResponseWorkflowState(
-            this.workflowStateRepository
-                .getByIdAndClientId(curState.getId(), auth.clientId)
-                .orElseThrow());
-    ResponseWorkflowState to =
-        new ResponseWorkflowState(
-            this.workflowStateRepository
-                .getByIdAndClientId(nextState.getId(), auth.clientId)
-                .orElseThrow());
+            this.transitionContextRepository.get(entityId, newStateId, auth.clientId), entityId);
+    ErrorUtils.onEmpty404(Optional.ofNullable(context.getTo()), newStateId);
+    // descriptions first so the attributes' descriptions resolve from the persistence context
+    context.resolveAttributes(
+        this.attributeDescriptionRepository.listByWorkflowId(context.getWorkflow().getId()),
+        this.transitionContextRepository.listAttributes(context));
+
+    WorkflowState.moveEntity(context);
+
+    this.workflowStateRepository.save(context.getFrom());
+    this.workflowStateRepository.save(context.getTo());
+    this.workflowEntityRepository.save(context.getEntity());
+
+    Map<Integer, Long> totalEntitiesDeltas = new HashMap<>();
+    totalEntitiesDeltas.merge(context.getFrom().getId(), -1L, Long::sum);
+    totalEntitiesDeltas.merge(context.getTo().getId(), 1L, Long::sum);
+    this.workflowStateRepository.addToTotalEntities(totalEntitiesDeltas);
+    this.workflowEntityRepository.flush();
+
+    // saved instances are up to date (update time is set on flush), no need to read them again
+    ResponseWorkflowEntity retEntity = new ResponseWorkflowEntity(context.getEntity());
+    ResponseWorkflowState from = new ResponseWorkflowState(context.getFrom());
+    ResponseWorkflowState to = new ResponseWorkflowState(context.getTo());
 
     Publisher.MessageBatch batch = this.publisher.batch();
 
@@ -291,6 +396,169 @@ public class WorkflowEntityController {
     return ResponseEntity.ok().headers(App.mutationResponseHeaders(eventId)).body(ret);
   }
 
+  @Operation(
+      description =
+          "Try moving many entities to new states. Each move succeeds or fails on its own and the"
+              + " accepted moves are saved together")
+  @PatchMapping("workflow-entities/workflow-states")
+  @ResponseBody
+  @Transactional
+  public ResponseEntity<ResponseBulkMoveState> moveStates(
+      @RequestHeader Map<String, String> headers, @RequestBody RequestBulkMoveState request) {
+    AuthorizationDTO auth = new AuthorizationDTO(headers);
+
+    ErrorUtils.assertNeq(request.moves, null, "moves is required");
+    ErrorUtils.assertEq(
+        request.moves.size() <= WorkflowEntityController.MAX_BULK_MOVES,
+        true,
+        String.format("at most %s moves per request", WorkflowEntityController.MAX_BULK_MOVES));
+
+    List<ResponseBulkMoveStateItem> results = new ArrayList<>();
+    Map<Integer, WorkflowEntity> moved = new LinkedHashMap<>();
+    Map<Integer, WorkflowState> changedStates = new LinkedHashMap<>();
+    Map<Integer, Long> totalEntitiesDeltas = new HashMap<>();
+
+    if (!request.moves.isEmpty()) {
+      BulkMoveContext context = this.loadBulkMoveContext(request, auth);
+
+      for (RequestEntityMoveState move : request.moves) {
+        try {
+          WorkflowEntity entity =
+              ErrorUtils.onEmpty404(
+                  Optional.ofNullable(context.entities.get(move.entityId)), move.entityId);
+          WorkflowState from =
+              ErrorUtils.onEmpty404(
+                  Optional.ofNullable(context.states.get(entity.getCurrentStateId())),
+                  entity.getCurrentStateId());
+          WorkflowState to =
+              ErrorUtils.onEmpty404(
+                  Optional.ofNullable(context.states.get(move.toStateId)), move.toStateId);
+
+          WorkflowState.moveEntity(
+              context.rules.get(new ChangeStateRulesId(from.getId(), to.getId())),
+              from,
+              to,
+              entity,
+              context.descriptions.get(entity.getWorkflowId()),
+              context.workflowAttrs.get(entity.getWorkflowId()),
+              context.entityAttrs.getOrDefault(entity.getId(), List.of()),
+              context.stateAttrs.getOrDefault(from.getId(), List.of()),
+              context.stateAttrs.getOrDefault(to.getId(), List.of()));
+
+          moved.put(entity.getId(), entity);
+          changedStates.put(from.getId(), from);
+          changedStates.put(to.getId(), to);
+          totalEntitiesDeltas.merge(from.getId(), -1L, Long::sum);
+          totalEntitiesDeltas.merge(to.getId(), 1L, Long::sum);
+          results.add(new ResponseBulkMoveStateItem(move));
+        } catch (ResponseStatusException err) {
+          results.add(new ResponseBulkMoveStateItem(move, err));
+        }
+      }
+
+      // with hibernate.jdbc.batch_size the updates go out in a few jdbc batches on flush
+      this.workflowEntityRepository.saveAll(moved.values());
+      this.workflowStateRepository.saveAll(changedStates.values());
+      this.workflowStateRepository.addToTotalEntities(totalEntitiesDeltas);
+      this.workflowEntityRepository.flush();
+    }
+
+    Map<Integer, ResponseWorkflowEntity> retEntities = new LinkedHashMap<>();
+    for (WorkflowEntity entity : moved.values())
+      retEntities.put(entity.getId(), new ResponseWorkflowEntity(entity));
+    results.stream()
+        .filter(item -> item.success)
+        .forEach(item -> item.entity = retEntities.get(item.entityId));
+
+    ResponseBulkMoveState ret = new ResponseBulkMoveState();
+    ret.results = results;
+    ret.states =
+        changedStates.values().stream()
+            .map(state -> new ResponseWorkflowState(state))
+            .collect(Collectors.toList());
+
+    Publisher.MessageBatch batch = this.publisher.batch();
+
+    UUID eventId = UUID.randomUUID();
+
+    for (ResponseWorkflowEntity entity : retEntities.values())
+      batch.add_to_batch(entity, Publisher.MessageType.UPDATE, auth, eventId);
+    for (ResponseWorkflowState state : ret.states)
+      batch.add_to_batch(state, Publisher.MessageType.UPDATE, auth, eventId);
+
+    this.publisher.publish(batch);
+
+    return ResponseEntity.ok().headers(App.mutationResponseHeaders(eventId)).body(ret);
+  }
+
+  /**
+   * Loads everything the moves of a bulk request need with one query per kind of data. Workflow
+   * level data (descriptions and workflow attributes) is shared by all moves of the same workflow.
+   */
+  private BulkMoveContext loadBulkMoveContext(RequestBulkMoveState request, AuthorizationDTO auth) {
+    BulkMoveContext context = new BulkMoveContext();
+
+    Set<Integer> entityIds =
+        request.moves.stream().map(move -> move.entityId).collect(Collectors.toSet());
+    this.workflowEntityRepository
+        .listByIdsAndClient(entityIds, auth.clientId)
+        .forEach(entity -> context.entities.put(entity.getId(), entity));
+
+    Set<Integer> stateIds =
+        request.moves.stream().map(move -> move.toStateId).collect(Collectors.toSet());
+    context.entities.values().forEach(entity -> stateIds.add(entity.getCurrentStateId()));
+    this.workflowStateRepository
+        .listByIdsAndClientId(stateIds, auth.clientId)
+        .forEach(state -> context.states.put(state.getId(), state));
+
+    if (context.states.isEmpty()) return context;
+
+    this.changeStateRulesRepository
+        .listByFromIds(context.states.keySet())
+        .forEach(
+            rule ->
+                context.rules.put(new ChangeStateRulesId(rule.getFromId(), rule.getToId()), rule));
+
+    // descriptions first so the attributes' descriptions resolve from the persistence context
+    Set<Integer> workflowIds =
+        context.entities.values().stream()
+            .map(WorkflowEntity::getWorkflowId)
+            .collect(Collectors.toSet());
+    for (Integer workflowId : workflowIds) {
+      context.descriptions.put(
+          workflowId, this.attributeDescriptionRepository.listByWorkflowId(workflowId));
+      context.workflowAttrs.put(
+          workflowId,
+          this.workflowAttributeRepository.list(
+              workflowId, WorkflowAttributeReferenceType.WORKFLOW));
+    }
+
+    context.stateAttrs =
+        this.workflowAttributeRepository
+            .listByBaseEntityIds(
+                context.states.keySet(), WorkflowAttributeReferenceType.WORKFLOW_STATE)
+            .stream()
+            .collect(Collectors.groupingBy(WorkflowAttribute::getBaseEntityId));
+    context.entityAttrs =
+        this.workflowAttributeRepository
+            .listByBaseEntityIds(
+                context.entities.keySet(), WorkflowAttributeReferenceType.WORKFLOW_ENTITY)
+            .stream()
+            .collect(Collectors.groupingBy(WorkflowAttribute::getBaseEntityId));
+
+    return context;
+  }
+
+  private static class BulkMoveContext {
+    Map<Integer, WorkflowEntity> entities = new HashMap<>();
+    Map<Integer, WorkflowState> states = new HashMap<>();
+    Map<ChangeStateRulesId, ChangeStateRules> rules = new HashMap<>();
+    Map<Integer, List<WorkflowAttributeDescription>> descriptions = new HashMap<>();
+    Map<Integer, List<WorkflowAttribute>> workflowAttrs = new HashMap<>();
+    Map<Integer, List<WorkflowAttribute>> stateAttrs = new HashMap<>();
+    Map<Integer, List<WorkflowAttribute>> entityAttrs = new HashMap<>();
+  }
+
   @GetMapping("workflow-entities/{entityId}/attributes")
   @ResponseBody
   public List<ResponseAttribute> listAttributes(
@@ -301,10 +569,7 @@ public class WorkflowEntityController {
     ErrorUtils.onEmpty404(
         this.workflowEntityRepository.getByIdAndClientId(entityId, auth.clientId), entityId);
 
-    return this.workflowAttributeRepository
-        .list(entityId, WorkflowAttributeReferenceType.WORKFLOW_ENTITY)
-        .stream()
-        .map(attr -> new ResponseAttribute(attr))
-        .collect(Collectors.toList());
+    return this.workflowAttributeRepository.listResponses(
+        entityId, WorkflowAttributeReferenceType.WORKFLOW_ENTITY);
   }
 }
@@ -2,6 +2,7 @@ package com.workflowmanager.app.controllers;
 
 import com.workflowmanager.app.App;
 import com.workflowmanager.app.Publisher;
+import com.workflowmanager.app.WorkflowDefinitionCache;
 import com.workflowmanager.app.controllers.requests.RequestNewAttribute;
 import com.workflowmanager.app.controllers.requests.RequestNewWorkflowState;
 import com.workflowmanager.app.controllers.requests.RequestSetChangeStateRule;
@@ -17,6 +18,7 @@ import com.workflowmanager.app.domains.WorkflowAttributeDescription;
 import com.workflowmanager.app.domains.WorkflowAttributeDescription.WorkflowAttributeReferenceType;
 import com.workflowmanager.app.domains.WorkflowState;
 import com.workflowmanager.app.domains.state.ChangeStateRules;
+import com.workflowmanager.app.domains.state.ChangeStateRulesCEL;
 import com.workflowmanager.app.domains.state.NewChangeStateRulesDTO;
 import com.workflowmanager.app.repositories.ChangeStateRulesRepository;
 import com.workflowmanager.app.repositories.WorkflowAttributeDescriptionRepository;
@@ -27,9 +29,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.stream.Collectors;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -47,6 +49,7 @@ public class WorkflowStateController {
   private final ChangeStateRulesRepository changeStateRulesRepository;
   private final WorkflowAttributeDescriptionRepository attributeDescriptionRepository;
   private final WorkflowAttributeRepository workflowAttributeRepository;
+  private final WorkflowDefinitionCache definitionCache;
   private final Publisher publisher;
 
   public WorkflowStateController(
@@ -55,12 +58,14 @@ public class WorkflowStateController {
       ChangeStateRulesRepository changeStateRulesRepository,
       WorkflowAttributeDescriptionRepository attributeDescriptionRepository,
       WorkflowAttributeRepository workflowAttributeRepository,
+      WorkflowDefinitionCache definitionCache,
       Publisher publisher) {
     this.workflowStateRepository = workflowStateRepository;
     this.workflowRepository = workflowRepository;
     this.changeStateRulesRepository = changeStateRulesRepository;
     this.attributeDescriptionRepository = attributeDescriptionRepository;
     this.workflowAttributeRepository = workflowAttributeRepository;
+    this.definitionCache = definitionCache;
     this.publisher = publisher;
   }
 
@@ -70,11 +75,17 @@ public class WorkflowStateController {
       @RequestHeader Map<String, String> headers, @PathVariable("workflowId") Integer workflowId) {
     AuthorizationDTO auth = new AuthorizationDTO(headers);
 
-    return this.workflowStateRepository
-        .listByWorkflowIdAndClientId(workflowId, auth.clientId)
-        .stream()
-        .map(state -> new ResponseWorkflowState(state))
-        .collect(Collectors.toList());
+    List<ResponseWorkflowState> states =
+        this.workflowStateRepository.listByWorkflowIdAndClientId(workflowId, auth.clientId);
+    if (states.isEmpty()) return states;
+
+    // the counters are read every time, the rules come with the definition
+    ResponseWorkflowState.addChangeRules(
+        states,
+        ErrorUtils.onEmpty404(this.definitionCache.get(auth.clientId, workflowId), workflowId)
+            .rules());
+
+    return states;
   }
 
   @GetMapping("workflow-states/{workflowStateId}")
@@ -91,6 +102,7 @@ public class WorkflowStateController {
 
   @PostMapping("workflows/{workflowId}/workflow-states")
   @ResponseBody
+  @Transactional
   public ResponseEntity<ResponseWorkflowState> createState(
       @RequestHeader Map<String, String> headers,
       @PathVariable("workflowId") Integer workflowId,
@@ -125,6 +137,7 @@ public class WorkflowStateController {
 
   @PostMapping("workflow-states/{workflowStateId}/rules")
   @ResponseBody
+  @Transactional
   public ResponseEntity<ResponseWorkflowState> createRule(
       @RequestHeader Map<String, String> headers,
       @PathVariable("workflowStateId") Integer workflowStateId,
@@ -160,6 +173,7 @@ public class WorkflowStateController {
         rulesOpt.orElseGet(() -> new ChangeStateRules(from, descriptions, to, dto));
 
     this.changeStateRulesRepository.save(rules);
+    ChangeStateRulesCEL.cacheRules(descriptions, rules);
 
     ResponseWorkflowState ret =
         new ResponseWorkflowState(
@@ -172,6 +186,7 @@ public class WorkflowStateController {
     UUID eventId = UUID.randomUUID();
 
     batch.add_to_batch(ret, Publisher.MessageType.UPDATE, auth, eventId);
+    batch.add_definition_change(workflow.getId(), auth);
 
     this.publisher.publish(batch);
 
@@ -180,6 +195,7 @@ public class WorkflowStateController {
 
   @PutMapping("workflow-states/{stateId}/attributes/{attributeName}")
   @ResponseBody
+  @Transactional
   public ResponseEntity<ResponseAttribute> setAttribute(
       @RequestHeader Map<String, String> headers,
       @PathVariable("stateId") Integer stateId,
@@ -252,10 +268,7 @@ public class WorkflowStateController {
     ErrorUtils.onEmpty404(
         this.workflowStateRepository.getByIdAndClientId(stateId, auth.clientId), stateId);
 
-    return this.workflowAttributeRepository
-        .list(stateId, WorkflowAttributeReferenceType.WORKFLOW_STATE)
-        .stream()
-        .map(attr -> new ResponseAttribute(attr))
-        .collect(Collectors.toList());
+    return this.workflowAttributeRepository.listResponses(
+        stateId, WorkflowAttributeReferenceType.WORKFLOW_STATE);
   }
 }
@@ -0,0 +1,9 @@
+package com.workflowmanager.app.controllers.requests;
+
+import jakarta.validation.constraints.NotNull;
+import java.util.List;
+
+public class RequestBulkMoveState {
+  /** applied in order, an entity can appear more than once */
+  @NotNull public List<RequestEntityMoveState> moves;
+}
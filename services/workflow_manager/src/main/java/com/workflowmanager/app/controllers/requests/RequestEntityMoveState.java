@@ -0,0 +1,8 @@
+package com.workflowmanager.app.controllers.requests;
+
+import jakarta.validation.constraints.NotNull;
+
+public class RequestEntityMoveState {
+  @NotNull public Integer entityId;
+  @NotNull public Integer toStateId;
+}
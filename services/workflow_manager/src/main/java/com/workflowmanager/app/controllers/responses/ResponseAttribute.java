@@ -38,4 +38,33 @@ public class ResponseAttribute {
     this.flag = attribute.getFlag();
     this.text = attribute.getText();
   }
+
+  /** Used by JPQL constructor expressions, see WorkflowAttributeRepository */
+  public ResponseAttribute(
+      String descriptionName,
+      Integer parentWorkflowId,
+      Integer baseEntityId,
+      Instant creationTime,
+      Instant updateTime,
+      Long integer,
+      Double floating,
+      String enumeration,
+      Date date,
+      Instant timestamp,
+      Boolean flag,
+      String text) {
+    this.descriptionName = descriptionName;
+    this.parentWorkflowId = parentWorkflowId;
+    this.baseEntityId = baseEntityId;
+    this.creationTime = creationTime;
+    this.updateTime = updateTime;
+
+    if (integer != null) this.integer = integer.toString();
+    this.floating = floating;
+    this.enumeration = enumeration;
+    this.date = date;
+    this.timestamp = timestamp;
+    this.flag = flag;
+    this.text = text;
+  }
 }
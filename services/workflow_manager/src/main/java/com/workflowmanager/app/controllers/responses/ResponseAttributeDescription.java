@@ -38,4 +38,28 @@ public class ResponseAttributeDescription {
     this.maxLength = description.getMaxLength();
     this.enumDescription = description.getEnumDescription();
   }
+
+  /** Used by JPQL constructor expressions, see WorkflowAttributeDescriptionRepository */
+  public ResponseAttributeDescription(
+      Integer parentWorkflowId,
+      WorkflowAttributeReferenceType refType,
+      WorkflowAttributeType attrType,
+      String name,
+      Instant creationTime,
+      Instant updateTime,
+      WorkflowAttributeExprRule expression,
+      WorkflowAttributeRegexRule regex,
+      Integer maxLength,
+      List<String> enumDescription) {
+    this.parentWorkflowId = parentWorkflowId;
+    this.refType = refType;
+    this.attrType = attrType;
+    this.name = name;
+    this.creationTime = creationTime;
+    this.updateTime = updateTime;
+    this.expression = expression;
+    this.regex = regex;
+    this.maxLength = maxLength;
+    this.enumDescription = enumDescription;
+  }
 }
@@ -33,4 +33,21 @@ public abstract class ResponseBaseEntity {
     this.updateTime = entity.getUpdateTime();
     this.deletionTime = entity.getDeletionTime();
   }
+
+  public ResponseBaseEntity(
+      Integer id,
+      String name,
+      UUID userId,
+      UUID clientId,
+      Instant creationTime,
+      Instant updateTime,
+      Instant deletionTime) {
+    this.id = id;
+    this.name = name;
+    this.userId = userId;
+    this.clientId = clientId;
+    this.creationTime = creationTime;
+    this.updateTime = updateTime;
+    this.deletionTime = deletionTime;
+  }
 }
@@ -0,0 +1,12 @@
+package com.workflowmanager.app.controllers.responses;
+
+import java.util.List;
+import org.springframework.lang.NonNull;
+
+public class ResponseBulkMoveState {
+  /** one item per requested move, same order as the request */
+  @NonNull public List<ResponseBulkMoveStateItem> results;
+
+  /** states that got or lost entities */
+  @NonNull public List<ResponseWorkflowState> states;
+}
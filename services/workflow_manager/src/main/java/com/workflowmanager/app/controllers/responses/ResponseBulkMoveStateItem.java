@@ -0,0 +1,33 @@
+package com.workflowmanager.app.controllers.responses;
+
+import com.workflowmanager.app.controllers.requests.RequestEntityMoveState;
+import jakarta.validation.constraints.NotNull;
+import org.springframework.web.server.ResponseStatusException;
+
+public class ResponseBulkMoveStateItem {
+  @NotNull public Integer entityId;
+  @NotNull public Integer toStateId;
+  @NotNull public Boolean success;
+
+  /** http status of the failure, null on success */
+  public Integer status;
+
+  public String error;
+
+  /** the entity after all moves of the request, null on failure */
+  public ResponseWorkflowEntity entity;
+
+  public ResponseBulkMoveStateItem(RequestEntityMoveState move) {
+    this.entityId = move.entityId;
+    this.toStateId = move.toStateId;
+    this.success = true;
+  }
+
+  public ResponseBulkMoveStateItem(RequestEntityMoveState move, ResponseStatusException err) {
+    this.entityId = move.entityId;
+    this.toStateId = move.toStateId;
+    this.success = false;
+    this.status = err.getStatusCode().value();
+    this.error = err.getReason();
+  }
+}
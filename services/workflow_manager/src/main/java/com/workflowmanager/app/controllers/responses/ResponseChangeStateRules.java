@@ -0,0 +1,44 @@
+package com.workflowmanager.app.controllers.responses;
+
+import com.workflowmanager.app.core.ErrorUtils;
+import com.workflowmanager.app.domains.state.ChangeStateRules;
+import jakarta.validation.constraints.NotNull;
+import java.time.Instant;
+import java.util.List;
+import org.springframework.web.server.ResponseStatusException;
+
+public class ResponseChangeStateRules {
+  @NotNull public Integer fromId;
+  @NotNull public Integer toId;
+  @NotNull public List<String> expressionNames;
+  @NotNull public List<String> expressions;
+  @NotNull public Instant creationTime;
+  @NotNull public Instant updateTime;
+
+  public ResponseChangeStateRules(ChangeStateRules rules) throws ResponseStatusException {
+    ErrorUtils.serverAssertNeq(rules, null);
+
+    this.fromId = rules.getFromId();
+    this.toId = rules.getToId();
+    this.expressionNames = rules.getExpressionNames();
+    this.expressions = rules.getExpressions();
+    this.creationTime = rules.getCreationTime();
+    this.updateTime = rules.getUpdateTime();
+  }
+
+  /** Used by JPQL constructor expressions, see ChangeStateRulesRepository */
+  public ResponseChangeStateRules(
+      Integer fromId,
+      Integer toId,
+      List<String> expressionNames,
+      List<String> expressions,
+      Instant creationTime,
+      Instant updateTime) {
+    this.fromId = fromId;
+    this.toId = toId;
+    this.expressionNames = expressionNames;
+    this.expressions = expressions;
+    this.creationTime = creationTime;
+    this.updateTime = updateTime;
+  }
+}
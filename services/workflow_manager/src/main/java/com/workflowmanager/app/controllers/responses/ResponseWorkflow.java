@@ -1,6 +1,8 @@
 package com.workflowmanager.app.controllers.responses;
 
 import com.workflowmanager.app.domains.Workflow;
+import java.time.Instant;
+import java.util.UUID;
 import org.springframework.web.server.ResponseStatusException;
 
 public class ResponseWorkflow extends ResponseBaseEntity {
@@ -11,4 +13,19 @@ public class ResponseWorkflow extends ResponseBaseEntity {
 
     this.initialStateId = workflow.getInitialStateId();
   }
+
+  /** Used by JPQL constructor expressions, see WorkflowRepository */
+  public ResponseWorkflow(
+      Integer id,
+      String name,
+      UUID userId,
+      UUID clientId,
+      Instant creationTime,
+      Instant updateTime,
+      Instant deletionTime,
+      Integer initialStateId) {
+    super(id, name, userId, clientId, creationTime, updateTime, deletionTime);
+
+    this.initialStateId = initialStateId;
+  }
 }
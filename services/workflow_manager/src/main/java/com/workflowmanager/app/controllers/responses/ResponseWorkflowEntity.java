@@ -2,6 +2,8 @@ package com.workflowmanager.app.controllers.responses;
 
 import com.workflowmanager.app.domains.WorkflowEntity;
 import jakarta.validation.constraints.NotNull;
+import java.time.Instant;
+import java.util.UUID;
 import org.springframework.web.server.ResponseStatusException;
 
 public class ResponseWorkflowEntity extends ResponseBaseEntity {
@@ -15,4 +17,21 @@ public class ResponseWorkflowEntity extends ResponseBaseEntity {
     this.workflowId = entity.getWorkflowId();
     this.currentStateId = entity.getCurrentStateId();
   }
+
+  /** Used by JPQL constructor expressions, see WorkflowEntityRepository */
+  public ResponseWorkflowEntity(
+      Integer id,
+      String name,
+      UUID userId,
+      UUID clientId,
+      Instant creationTime,
+      Instant updateTime,
+      Instant deletionTime,
+      Integer workflowId,
+      Integer currentStateId) {
+    super(id, name, userId, clientId, creationTime, updateTime, deletionTime);
+
+    this.workflowId = workflowId;
+    this.currentStateId = currentStateId;
+  }
 }
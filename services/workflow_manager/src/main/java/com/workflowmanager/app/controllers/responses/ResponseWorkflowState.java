@@ -1,45 +1,61 @@
 package com.workflowmanager.app.controllers.responses;
 
-import com.workflowmanager.app.core.ErrorUtils;
 import com.workflowmanager.app.domains.WorkflowState;
-import com.workflowmanager.app.domains.state.ChangeStateRules;
 import jakarta.validation.constraints.NotNull;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.stream.Collectors;
-import org.springframework.web.server.ResponseStatusException;
 
 public class ResponseWorkflowState extends ResponseBaseEntity {
   @NotNull public Integer workflowId;
   @NotNull public List<ResponseChangeStateRules> changeRules;
+  @NotNull public Long totalEntities;
 
   public ResponseWorkflowState(WorkflowState state) {
     super(state);
 
     this.workflowId = state.getWorkflowId();
+    this.totalEntities = state.getTotalEntities();
     this.changeRules =
         state.getChangeRules().stream()
             .map(rules -> new ResponseChangeStateRules(rules))
             .collect(Collectors.toList());
   }
 
-  public class ResponseChangeStateRules {
-    @NotNull public Integer fromId;
-    @NotNull public Integer toId;
-    @NotNull public List<String> expressionNames;
-    @NotNull public List<String> expressions;
-    @NotNull public Instant creationTime;
-    @NotNull public Instant updateTime;
-
-    public ResponseChangeStateRules(ChangeStateRules rules) throws ResponseStatusException {
-      ErrorUtils.serverAssertNeq(rules, null);
-
-      this.fromId = rules.getFromId();
-      this.toId = rules.getToId();
-      this.expressionNames = rules.getExpressionNames();
-      this.expressions = rules.getExpressions();
-      this.creationTime = rules.getCreationTime();
-      this.updateTime = rules.getUpdateTime();
+  /**
+   * Used by JPQL constructor expressions, see WorkflowStateRepository. The change rules are
+   * selected separately and added with addChangeRules.
+   */
+  public ResponseWorkflowState(
+      Integer id,
+      String name,
+      UUID userId,
+      UUID clientId,
+      Instant creationTime,
+      Instant updateTime,
+      Instant deletionTime,
+      Integer workflowId,
+      Long totalEntities) {
+    super(id, name, userId, clientId, creationTime, updateTime, deletionTime);
+
+    this.workflowId = workflowId;
+    this.totalEntities = totalEntities;
+    this.changeRules = new ArrayList<>();
+  }
+
+  /** Adds each rule to the state it goes from, rules from other states are ignored. */
+  public static void addChangeRules(
+      List<ResponseWorkflowState> states, List<ResponseChangeStateRules> rules) {
+    Map<Integer, ResponseWorkflowState> statesById = new HashMap<>();
+    for (ResponseWorkflowState state : states) statesById.put(state.id, state);
+
+    for (ResponseChangeStateRules rule : rules) {
+      ResponseWorkflowState state = statesById.get(rule.fromId);
+      if (state != null) state.changeRules.add(rule);
     }
   }
 }
@@ -8,6 +8,7 @@ import jakarta.persistence.Id;
 import jakarta.persistence.MappedSuperclass;
 import jakarta.persistence.PrePersist;
 import jakarta.persistence.PreUpdate;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
 import java.time.Instant;
@@ -20,8 +21,20 @@ import org.springframework.web.server.ResponseStatusException;
             + " WorkflowEntity")
 @MappedSuperclass
 public abstract class BaseEntity {
+  /**
+   * Ids each node reserves per sequence call. The sequence's INCREMENT BY wins when it differs
+   * (increment_size_mismatch_strategy=fix), so it can be changed without a release.
+   */
+  public static final int ID_ALLOCATION_SIZE = 50;
+
+  // pooled sequence instead of identity so hibernate can batch the inserts, every entity type
+  // takes ids from it (db/migration/V2__outbox_and_counters.sql moves the identity ids to it)
   @Id
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "base_entities_seq")
+  @SequenceGenerator(
+      name = "base_entities_seq",
+      sequenceName = "base_entities_seq",
+      allocationSize = BaseEntity.ID_ALLOCATION_SIZE)
   @Schema(description = "Numeric id of the entity. Generated on creation.")
   private Integer id;
 
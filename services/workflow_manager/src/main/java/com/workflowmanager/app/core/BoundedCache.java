@@ -0,0 +1,47 @@
+package com.workflowmanager.app.core;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiPredicate;
+
+/**
+ * Thread safe map with a maximum size. Reads never lock, when a put goes over the limit some
+ * arbitrary entry is dropped, so it should only hold values that can be rebuilt.
+ */
+public class BoundedCache<K, V> {
+  private final Map<K, V> values = new ConcurrentHashMap<>();
+  private final int maxSize;
+
+  public BoundedCache(int maxSize) {
+    ErrorUtils.serverAssertEq(maxSize > 0, true, "BoundedCache maxSize must be positive");
+
+    this.maxSize = maxSize;
+  }
+
+  public V get(K key) {
+    return this.values.get(key);
+  }
+
+  public void put(K key, V value) {
+    this.values.put(key, value);
+
+    Iterator<K> keys = this.values.keySet().iterator();
+    while (this.values.size() > this.maxSize && keys.hasNext()) {
+      K toEvict = keys.next();
+      if (!toEvict.equals(key)) keys.remove();
+    }
+  }
+
+  public void remove(K key) {
+    this.values.remove(key);
+  }
+
+  public void removeIf(BiPredicate<K, V> predicate) {
+    this.values.entrySet().removeIf(entry -> predicate.test(entry.getKey(), entry.getValue()));
+  }
+
+  public int size() {
+    return this.values.size();
+  }
+}
@@ -0,0 +1,73 @@
+package com.workflowmanager.app.domains;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import org.hibernate.annotations.ColumnDefault;
+
+/**
+ * Message written in the same transaction as the mutation it describes, sent to rabbit by
+ * OutboxRelay after commit. The columns only the relay uses (claimed_by, claimed_at, insert_order,
+ * see V5__outbox_claims.sql) are set by its native queries and the database, they aren't mapped.
+ */
+@Entity
+@Table(name = "outbox_events")
+public class OutboxEvent {
+  // sequence so hibernate can batch the inserts of bulk mutations
+  @Id
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "outbox_events_seq")
+  @SequenceGenerator(
+      name = "outbox_events_seq",
+      sequenceName = "outbox_events_seq",
+      allocationSize = 100)
+  private Long id;
+
+  /** text message or MutationEnvelope, see contentType */
+  @Column(nullable = false, updatable = false)
+  private byte[] body;
+
+  @Column(name = "content_type", nullable = false, updatable = false)
+  private String contentType;
+
+  // rows written before the routing key was stored keep the old fixed one
+  @ColumnDefault("'workflow.entities.mutations'")
+  @Column(name = "routing_key", nullable = false, updatable = false)
+  private String routingKey;
+
+  @Column(name = "creation_time", nullable = false, updatable = false)
+  private Instant creationTime;
+
+  public OutboxEvent() {}
+
+  public OutboxEvent(byte[] body, String contentType, String routingKey) {
+    this.body = body;
+    this.contentType = contentType;
+    this.routingKey = routingKey;
+    this.creationTime = Instant.now();
+  }
+
+  public Long getId() {
+    return this.id;
+  }
+
+  public byte[] getBody() {
+    return this.body;
+  }
+
+  public String getContentType() {
+    return this.contentType;
+  }
+
+  public String getRoutingKey() {
+    return this.routingKey;
+  }
+
+  public Instant getCreationTime() {
+    return this.creationTime;
+  }
+}
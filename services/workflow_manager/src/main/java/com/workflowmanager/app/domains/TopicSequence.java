@@ -0,0 +1,42 @@
+package com.workflowmanager.app.domains;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import org.hibernate.annotations.ColumnDefault;
+
+/**
+ * Last sequence number given to a topic (clientId:refType[:id][:attr]). Only changed through
+ * TopicSequenceRepository.increment.
+ */
+@Entity
+@Table(name = "topic_sequences")
+public class TopicSequence {
+  @Id
+  @Column(length = 100)
+  private String topic;
+
+  @Column(nullable = false)
+  private Long seq;
+
+  /** Set by every increment, see TopicSequenceCleaner */
+  @ColumnDefault("now()")
+  @Column(name = "last_used", nullable = false)
+  private Instant lastUsed;
+
+  public TopicSequence() {}
+
+  public String getTopic() {
+    return this.topic;
+  }
+
+  public Long getSeq() {
+    return this.seq;
+  }
+
+  public Instant getLastUsed() {
+    return this.lastUsed;
+  }
+}
@@ -5,15 +5,12 @@ import com.workflowmanager.app.core.BaseEntity;
 import com.workflowmanager.app.core.ErrorUtils;
 import com.workflowmanager.app.domains.workflow.WorkflowConfig;
 import io.swagger.v3.oas.annotations.media.Schema;
-import jakarta.persistence.CascadeType;
 import jakarta.persistence.Entity;
 import jakarta.persistence.JoinColumn;
-import jakarta.persistence.OneToMany;
 import jakarta.persistence.OneToOne;
 import jakarta.persistence.PostLoad;
 import jakarta.persistence.Table;
 import jakarta.persistence.Transient;
-import java.util.List;
 import org.springframework.web.server.ResponseStatusException;
 
 @Entity
@@ -29,14 +26,6 @@ public class Workflow extends BaseEntity {
 
   @Transient private Integer initialStateId;
 
-  @OneToMany(cascade = CascadeType.ALL)
-  @Schema(description = "Attributes for this workflow.")
-  private List<WorkflowAttribute> attrs;
-
-  public List<WorkflowAttribute> getAttrs() {
-    return this.attrs;
-  }
-
   public Workflow(NewWorkflowDTO newWorkflow) {
     super(newWorkflow);
   }
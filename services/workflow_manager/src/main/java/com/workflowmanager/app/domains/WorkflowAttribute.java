@@ -33,6 +33,10 @@ public class WorkflowAttribute {
     return this.id.getBaseEntityId();
   }
 
+  public WorkflowAttributeReferenceType getRefType() {
+    return this.id.getRefType();
+  }
+
   public Instant getCreationTime() {
     return this.creationTime;
   }
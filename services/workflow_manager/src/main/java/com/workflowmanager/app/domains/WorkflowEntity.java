@@ -4,7 +4,6 @@ import com.fasterxml.jackson.annotation.JsonBackReference;
 import com.workflowmanager.app.core.BaseEntity;
 import com.workflowmanager.app.core.ErrorUtils;
 import jakarta.persistence.Entity;
-import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.PrePersist;
@@ -14,12 +13,8 @@ import java.time.Instant;
 import org.springframework.web.server.ResponseStatusException;
 
 @Entity
-@Table(
-    name = "workflow_entities",
-    indexes = {
-      @Index(name = "workflow_entities_current_state_id_index", columnList = "current_state_id"),
-      @Index(name = "workflow_entities_workflow_id_index", columnList = "workflow_id")
-    })
+// the listing indexes are in db/migration/V3__query_indexes.sql
+@Table(name = "workflow_entities")
 public class WorkflowEntity extends BaseEntity {
   @ManyToOne(optional = false)
   @JoinColumn(name = "workflow_id2")
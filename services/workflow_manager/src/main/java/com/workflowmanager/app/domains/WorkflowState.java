@@ -2,18 +2,22 @@ package com.workflowmanager.app.domains;
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
 import com.workflowmanager.app.core.BaseEntity;
-import com.workflowmanager.app.core.ErrorUtils;
 import com.workflowmanager.app.domains.state.ChangeStateRules;
 import com.workflowmanager.app.domains.state.ChangeStateRulesCEL;
+import com.workflowmanager.app.domains.state.TransitionContext;
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.PostLoad;
 import jakarta.persistence.Table;
 import jakarta.persistence.Transient;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.ColumnDefault;
 import org.springframework.http.HttpStatus;
 import org.springframework.lang.NonNull;
 import org.springframework.web.server.ResponseStatusException;
@@ -28,36 +32,32 @@ public class WorkflowState extends BaseEntity {
 
   @Transient private Integer workflowId;
 
+  // initialized for up to 100 states of the persistence context in one query, responses built
+  // from several states (bulk moves, from/to of a move) don't load them one by one
   @OneToMany(mappedBy = "from")
+  @BatchSize(size = 100)
   private List<ChangeStateRules> changeRules;
 
-  @Transient private Long totalEntities;
+  /**
+   * Entities currently in the state. Only changed with relative updates (see
+   * WorkflowStateRepository.addToTotalEntities) so saving a stale instance never overwrites it.
+   */
+  @ColumnDefault("0")
+  @Column(nullable = false, updatable = false)
+  private Long totalEntities;
 
   /** when was the last time the state's got/removed entities */
   @NonNull private Instant lastCurrentEntitiesChange;
 
   public WorkflowState() {}
 
-  /** Throws if that is null. */
-  public WorkflowState(WorkflowState that, Long totalEntities, Integer workflowId)
-      throws ResponseStatusException {
-    super(that);
-
-    ErrorUtils.serverAssertNeq(that, null);
-    this.workflow = that.workflow;
-    this.changeRules = that.changeRules;
-
-    // transient
-    this.workflowId = workflowId;
-    this.totalEntities = totalEntities;
-  }
-
   public WorkflowState(NewWorkflowStateDTO newWorkflowState, Workflow workflow) {
     super(newWorkflowState);
 
     this.workflow = workflow;
     this.workflowId = workflow.getId();
     this.changeRules = new ArrayList<>();
+    this.totalEntities = 0L;
     this.lastCurrentEntitiesChange = Instant.now();
   }
 
@@ -85,7 +85,22 @@ public class WorkflowState extends BaseEntity {
     this.lastCurrentEntitiesChange = Instant.now();
   }
 
+  public static void moveEntity(TransitionContext context) throws ResponseStatusException {
+    WorkflowState.moveEntity(
+        context.getRule(),
+        context.getFrom(),
+        context.getTo(),
+        context.getEntity(),
+        context.getDescriptions(),
+        context.getWorkflowAttrs(),
+        context.getEntityAttrs(),
+        context.getFromStateAttrs(),
+        context.getToStateAttrs());
+  }
+
+  /** rule is the rule from "from" to "to", null if it doesn't exist. */
   public static void moveEntity(
+      ChangeStateRules rule,
       WorkflowState from,
       WorkflowState to,
       WorkflowEntity entity,
@@ -95,16 +110,7 @@ public class WorkflowState extends BaseEntity {
       List<WorkflowAttribute> fromStateAttrs,
       List<WorkflowAttribute> toStateAttrs)
       throws ResponseStatusException {
-    ChangeStateRules rule =
-        from.changeRules.stream()
-            .filter(x -> x.getToId().equals(to.getId()))
-            .findFirst()
-            .orElseThrow(
-                () ->
-                    new ResponseStatusException(
-                        HttpStatus.UNPROCESSABLE_ENTITY,
-                        String.format(
-                            "rule from %s to %s does not exist", from.getId(), to.getId())));
+    if (rule == null) throw WorkflowState.missingRule(from, to);
 
     ChangeStateRulesCEL.applyRule(
         descriptions, rule, workflowAttrs, entityAttrs, fromStateAttrs, toStateAttrs);
@@ -113,6 +119,19 @@ public class WorkflowState extends BaseEntity {
 
     from.signalLastCurrentEntitiesChange();
     to.signalLastCurrentEntitiesChange();
+    from.totalEntities -= 1;
+    to.totalEntities += 1;
     entity.setCurrentState(to);
   }
+
+  private static ResponseStatusException missingRule(WorkflowState from, WorkflowState to) {
+    return new ResponseStatusException(
+        HttpStatus.UNPROCESSABLE_ENTITY,
+        String.format("rule from %s to %s does not exist", from.getId(), to.getId()));
+  }
+
+  @PostLoad
+  protected void onLoad() {
+    if (this.workflow != null) this.workflowId = this.workflow.getId();
+  }
 }
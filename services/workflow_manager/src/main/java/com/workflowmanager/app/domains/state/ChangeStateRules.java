@@ -14,6 +14,7 @@ import jakarta.persistence.Table;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import org.springframework.web.server.ResponseStatusException;
 
@@ -78,8 +79,8 @@ public class ChangeStateRules {
     this.expressions = dto.expressions;
     this.fromId = from.getId();
     this.toId = to.getId();
-    this.updateTime = Instant.now();
-    this.creationTime = Instant.now();
+    this.updateTime = ChangeStateRules.now();
+    this.creationTime = this.updateTime;
 
     ChangeStateRulesCEL.checkRules(descriptions, this);
   }
@@ -87,7 +88,15 @@ public class ChangeStateRules {
   public void update(NewChangeStateRulesDTO dto) {
     this.expressionNames = dto.expressionNames;
     this.expressions = dto.expressions;
-    this.updateTime = Instant.now();
+    this.updateTime = ChangeStateRules.now();
+  }
+
+  /**
+   * Truncated to the microseconds timestamp(6) keeps, the rule cached on save (see
+   * ChangeStateRulesCEL.cacheRules) has the updateTime it will have when it's read back.
+   */
+  private static Instant now() {
+    return Instant.now().truncatedTo(ChronoUnit.MICROS);
   }
 
   public Instant getCreationTime() {
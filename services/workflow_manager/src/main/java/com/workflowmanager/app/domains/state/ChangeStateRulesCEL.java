@@ -1,8 +1,10 @@
 package com.workflowmanager.app.domains.state;
 
+import com.workflowmanager.app.core.BoundedCache;
 import com.workflowmanager.app.core.ErrorUtils;
 import com.workflowmanager.app.domains.WorkflowAttribute;
 import com.workflowmanager.app.domains.WorkflowAttributeDescription;
+import com.workflowmanager.app.domains.WorkflowAttributeDescription.WorkflowAttributeReferenceType;
 import com.workflowmanager.app.domains.WorkflowAttributeDescription.WorkflowAttributeType;
 import dev.cel.common.CelAbstractSyntaxTree;
 import dev.cel.common.CelValidationException;
@@ -15,21 +17,32 @@ import dev.cel.expr.Type;
 import dev.cel.runtime.CelEvaluationException;
 import dev.cel.runtime.CelRuntime;
 import dev.cel.runtime.CelRuntimeFactory;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 import org.springframework.web.server.ResponseStatusException;
 
 public class ChangeStateRulesCEL {
   private static final CelRuntime CEL_RUNTIME =
       CelRuntimeFactory.standardCelRuntimeBuilder().build();
+  private static final int MAX_CACHED_RULES = 10_000;
+  private static final int MAX_CACHED_COMPILERS = 1_000;
+
+  private static final BoundedCache<ChangeStateRulesId, CompiledRules> PROGRAMS =
+      new BoundedCache<>(MAX_CACHED_RULES);
+  private static final BoundedCache<Integer, WorkflowCompiler> COMPILERS =
+      new BoundedCache<>(MAX_CACHED_COMPILERS);
 
   public static void checkRules(
       List<WorkflowAttributeDescription> descriptions, ChangeStateRules rules)
       throws ResponseStatusException {
-    CelCompiler compiler = getCompiler(descriptions);
+    CelCompiler compiler =
+        getCompiler(rules.getFrom().getWorkflow().getId(), descriptions).compiler();
     List<String> errors = new ArrayList<>();
 
     CelAbstractSyntaxTree ast;
@@ -61,9 +74,8 @@ public class ChangeStateRulesCEL {
       List<WorkflowAttribute> fromStateAttrs,
       List<WorkflowAttribute> toStateAttrs)
       throws ResponseStatusException {
-    CelCompiler compiler = getCompiler(descriptions);
+    List<CompiledExpression> programs = getPrograms(descriptions, rules);
     List<String> errors = new ArrayList<>();
-    CelAbstractSyntaxTree ast;
 
     Map<String, Object> values = new HashMap<>();
     Map<String, WorkflowAttributeType> description_name_to_type =
@@ -94,23 +106,17 @@ public class ChangeStateRulesCEL {
       values.put("ts_" + attr.getDescriptionName(), attr.getValue(ty));
     }
 
-    for (int i = 0; i < rules.getExpressions().size(); i++) {
-      String expression = rules.getExpressions().get(i);
-
-      try {
-        ast = compiler.parse(expression).getAst();
-        ast = compiler.check(ast).getAst();
-      } catch (CelValidationException e) {
-        errors.addLast(String.format("%s: %s", rules.getExpressionNames().get(i), e.getMessage()));
+    for (CompiledExpression expression : programs) {
+      if (expression.error() != null) {
+        errors.addLast(expression.error());
         continue;
       }
 
       try {
-        CelRuntime.Program program = CEL_RUNTIME.createProgram(ast);
-        if (!(Boolean) program.eval(values))
-          errors.addLast(String.format("%s: returned false", rules.getExpressionNames().get(i)));
+        if (!(Boolean) expression.program().eval(values))
+          errors.addLast(String.format("%s: returned false", expression.name()));
       } catch (CelEvaluationException e) {
-        errors.addLast(String.format("%s: %s", rules.getExpressionNames().get(i), e.getMessage()));
+        errors.addLast(String.format("%s: %s", expression.name(), e.getMessage()));
       }
     }
 
@@ -123,7 +129,79 @@ public class ChangeStateRulesCEL {
     return;
   }
 
-  private static CelCompiler getCompiler(List<WorkflowAttributeDescription> descriptions) {
+  /** Compiles the rules ahead of time so the next transitions only pay for the evaluation. */
+  public static void cacheRules(
+      List<WorkflowAttributeDescription> descriptions, ChangeStateRules rules) {
+    getPrograms(descriptions, rules);
+  }
+
+  /** Must be called when the attribute descriptions of the workflow change. */
+  public static void evictWorkflow(Integer workflowId) {
+    COMPILERS.remove(workflowId);
+    PROGRAMS.removeIf((id, compiled) -> compiled.workflowId().equals(workflowId));
+  }
+
+  /**
+   * Programs are reused while both the rule (updateTime) and the descriptions of the workflow
+   * (schema fingerprint) are the same as when they were compiled. A newer version of the rule
+   * replaces the old entry. Expressions that don't compile are cached as errors. A hit only
+   * compares the key of the fingerprint, the variables are built when something is compiled.
+   */
+  private static List<CompiledExpression> getPrograms(
+      List<WorkflowAttributeDescription> descriptions, ChangeStateRules rules) {
+    ChangeStateRulesId id = new ChangeStateRulesId(rules.getFromId(), rules.getToId());
+    Integer workflowId = rules.getFrom().getWorkflow().getId();
+
+    CompiledRules compiled = PROGRAMS.get(id);
+    if (compiled != null
+        && Objects.equals(compiled.updateTime(), rules.getUpdateTime())
+        && compiled.fingerprint().sameKey(descriptions)) return compiled.expressions();
+
+    WorkflowCompiler workflowCompiler = getCompiler(workflowId, descriptions);
+    CelCompiler compiler = workflowCompiler.compiler();
+    List<CompiledExpression> expressions = new ArrayList<>();
+
+    for (int i = 0; i < rules.getExpressions().size(); i++) {
+      String name = rules.getExpressionNames().get(i);
+      String expression = rules.getExpressions().get(i);
+
+      try {
+        CelAbstractSyntaxTree ast = compiler.parse(expression).getAst();
+        ast = compiler.check(ast).getAst();
+        expressions.addLast(new CompiledExpression(name, CEL_RUNTIME.createProgram(ast), null));
+      } catch (CelValidationException | CelEvaluationException e) {
+        expressions.addLast(
+            new CompiledExpression(name, null, String.format("%s: %s", name, e.getMessage())));
+      }
+    }
+
+    PROGRAMS.put(
+        id,
+        new CompiledRules(
+            workflowId,
+            rules.getUpdateTime(),
+            workflowCompiler.fingerprint(),
+            List.copyOf(expressions)));
+
+    return expressions;
+  }
+
+  /** Compilers are kept per workflow until its descriptions change. */
+  private static WorkflowCompiler getCompiler(
+      Integer workflowId, List<WorkflowAttributeDescription> descriptions) {
+    WorkflowCompiler cached = COMPILERS.get(workflowId);
+    if (cached != null && cached.fingerprint().sameKey(descriptions)) return cached;
+
+    SchemaFingerprint fingerprint = SchemaFingerprint.of(descriptions);
+    if (cached != null && cached.fingerprint().equals(fingerprint)) return cached;
+
+    WorkflowCompiler compiler = new WorkflowCompiler(fingerprint, buildCompiler(descriptions));
+    COMPILERS.put(workflowId, compiler);
+
+    return compiler;
+  }
+
+  private static CelCompiler buildCompiler(List<WorkflowAttributeDescription> descriptions) {
     CelCompilerBuilder compBuilder = CelCompilerFactory.standardCelCompilerBuilder();
 
     for (WorkflowAttributeDescription description : descriptions) {
@@ -162,4 +240,61 @@ public class ChangeStateRulesCEL {
     // unreachable
     return null;
   }
+
+  private record CompiledExpression(String name, CelRuntime.Program program, String error) {}
+
+  private record CompiledRules(
+      Integer workflowId,
+      Instant updateTime,
+      SchemaFingerprint fingerprint,
+      List<CompiledExpression> expressions) {}
+
+  private record WorkflowCompiler(SchemaFingerprint fingerprint, CelCompiler compiler) {}
+
+  /**
+   * The variables a list of descriptions declares in the compiler (name, refType, attrType) and
+   * when they last changed. Compared by value, it doesn't depend on the order of the list.
+   *
+   * <p>The key (count and latest updateTime) is checked first without allocating: descriptions are
+   * only added, changed or deleted with a newer updateTime or a different count, so the variables
+   * only need to be built when the key differs.
+   */
+  private record SchemaFingerprint(int count, Instant latestUpdate, Set<Variable> variables) {
+    boolean sameKey(List<WorkflowAttributeDescription> descriptions) {
+      return descriptions.size() == this.count
+          && Objects.equals(latestUpdate(descriptions), this.latestUpdate);
+    }
+
+    static Instant latestUpdate(List<WorkflowAttributeDescription> descriptions) {
+      Instant latest = null;
+      for (WorkflowAttributeDescription description : descriptions) {
+        Instant updateTime = description.getUpdateTime();
+        if (updateTime != null && (latest == null || updateTime.isAfter(latest)))
+          latest = updateTime;
+      }
+
+      return latest;
+    }
+
+    static SchemaFingerprint of(List<WorkflowAttributeDescription> descriptions) {
+      List<Variable> variables = new ArrayList<>(descriptions.size());
+
+      for (WorkflowAttributeDescription description : descriptions)
+        variables.add(
+            new Variable(
+                description.getName(),
+                description.getRefType(),
+                description.getAttrType(),
+                description.getUpdateTime()));
+
+      return new SchemaFingerprint(
+          descriptions.size(), latestUpdate(descriptions), Set.copyOf(variables));
+    }
+  }
+
+  private record Variable(
+      String name,
+      WorkflowAttributeReferenceType refType,
+      WorkflowAttributeType attrType,
+      Instant updateTime) {}
 }
@@ -7,6 +7,13 @@ public class ChangeStateRulesId implements Serializable {
   private Integer from;
   private Integer to;
 
+  public ChangeStateRulesId() {}
+
+  public ChangeStateRulesId(Integer from, Integer to) {
+    this.from = from;
+    this.to = to;
+  }
+
   // Getters and setters, equals and hashCode
   public Integer getFrom() {
     return from;
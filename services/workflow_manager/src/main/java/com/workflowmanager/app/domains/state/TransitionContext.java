@@ -0,0 +1,105 @@
+package com.workflowmanager.app.domains.state;
+
+import com.workflowmanager.app.domains.Workflow;
+import com.workflowmanager.app.domains.WorkflowAttribute;
+import com.workflowmanager.app.domains.WorkflowAttributeDescription;
+import com.workflowmanager.app.domains.WorkflowEntity;
+import com.workflowmanager.app.domains.WorkflowState;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything needed to evaluate and apply the move of an entity to another state. The entity, its
+ * workflow, both states and the rule between them are selected in the same row (see
+ * TransitionContextRepository) and the attributes of the four scopes are set afterwards with
+ * resolveAttributes.
+ */
+public class TransitionContext {
+  private final WorkflowEntity entity;
+  private final Workflow workflow;
+  private final WorkflowState from;
+  private final WorkflowState to;
+  private final ChangeStateRules rule;
+
+  private List<WorkflowAttributeDescription> descriptions = new ArrayList<>();
+  private final List<WorkflowAttribute> workflowAttrs = new ArrayList<>();
+  private final List<WorkflowAttribute> entityAttrs = new ArrayList<>();
+  private final List<WorkflowAttribute> fromStateAttrs = new ArrayList<>();
+  private final List<WorkflowAttribute> toStateAttrs = new ArrayList<>();
+
+  /** rule is null when there's no rule from the current state to the next state. */
+  public TransitionContext(
+      WorkflowEntity entity,
+      Workflow workflow,
+      WorkflowState from,
+      WorkflowState to,
+      ChangeStateRules rule) {
+    this.entity = entity;
+    this.workflow = workflow;
+    this.from = from;
+    this.to = to;
+    this.rule = rule;
+  }
+
+  /** Splits the attributes loaded for all scopes of the transition by reference type and id. */
+  public void resolveAttributes(
+      List<WorkflowAttributeDescription> descriptions, List<WorkflowAttribute> attrs) {
+    this.descriptions = descriptions;
+
+    for (WorkflowAttribute attr : attrs) {
+      switch (attr.getRefType()) {
+        case WORKFLOW:
+          if (attr.getBaseEntityId().equals(this.workflow.getId())) this.workflowAttrs.add(attr);
+          break;
+        case WORKFLOW_ENTITY:
+          if (attr.getBaseEntityId().equals(this.entity.getId())) this.entityAttrs.add(attr);
+          break;
+        case WORKFLOW_STATE:
+          // from and to can be the same state
+          if (attr.getBaseEntityId().equals(this.from.getId())) this.fromStateAttrs.add(attr);
+          if (attr.getBaseEntityId().equals(this.to.getId())) this.toStateAttrs.add(attr);
+          break;
+      }
+    }
+  }
+
+  public WorkflowEntity getEntity() {
+    return this.entity;
+  }
+
+  public Workflow getWorkflow() {
+    return this.workflow;
+  }
+
+  public WorkflowState getFrom() {
+    return this.from;
+  }
+
+  public WorkflowState getTo() {
+    return this.to;
+  }
+
+  public ChangeStateRules getRule() {
+    return this.rule;
+  }
+
+  public List<WorkflowAttributeDescription> getDescriptions() {
+    return this.descriptions;
+  }
+
+  public List<WorkflowAttribute> getWorkflowAttrs() {
+    return this.workflowAttrs;
+  }
+
+  public List<WorkflowAttribute> getEntityAttrs() {
+    return this.entityAttrs;
+  }
+
+  public List<WorkflowAttribute> getFromStateAttrs() {
+    return this.fromStateAttrs;
+  }
+
+  public List<WorkflowAttribute> getToStateAttrs() {
+    return this.toStateAttrs;
+  }
+}
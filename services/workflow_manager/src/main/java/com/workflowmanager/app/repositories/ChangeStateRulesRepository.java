@@ -1,11 +1,15 @@
 package com.workflowmanager.app.repositories;
 
+import com.workflowmanager.app.controllers.responses.ResponseChangeStateRules;
 import com.workflowmanager.app.domains.state.ChangeStateRules;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.Repository;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 @Qualifier("workflow_states")
 public interface ChangeStateRulesRepository extends Repository<ChangeStateRules, Integer> {
@@ -14,4 +18,15 @@ public interface ChangeStateRulesRepository extends Repository<ChangeStateRules,
 
   @Query("SELECT r FROM ChangeStateRules r WHERE r.from.id = :fromId AND r.to.id = :toId")
   Optional<ChangeStateRules> get(@Param("fromId") Integer formId, @Param("toId") Integer toId);
+
+  @Query("SELECT r FROM ChangeStateRules r WHERE r.fromId IN :fromIds")
+  List<ChangeStateRules> listByFromIds(@Param("fromIds") Collection<Integer> fromIds);
+
+  /** Rules from any state of the workflow, see WorkflowDefinitionCache */
+  @Query(
+      "SELECT new com.workflowmanager.app.controllers.responses.ResponseChangeStateRules(r.fromId,"
+          + " r.toId, r.expressionNames, r.expressions, r.creationTime, r.updateTime) FROM"
+          + " ChangeStateRules r WHERE r.from.workflow.id = :workflowId")
+  @Transactional(readOnly = true)
+  List<ResponseChangeStateRules> listResponsesByWorkflowId(@Param("workflowId") Integer workflowId);
 }
@@ -0,0 +1,49 @@
+package com.workflowmanager.app.repositories;
+
+import com.workflowmanager.app.domains.OutboxEvent;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+
+public interface OutboxEventRepository extends Repository<OutboxEvent, Long> {
+  <S extends OutboxEvent> List<S> saveAll(Iterable<S> events);
+
+  /**
+   * Transaction scoped advisory lock, false if another transaction holds it. Claims are decided
+   * under it so two relays never both see the outbox unclaimed.
+   */
+  @Query(value = "SELECT pg_try_advisory_xact_lock(:key)", nativeQuery = true)
+  boolean tryLock(@Param("key") Long key);
+
+  /** Whether another relay claimed events less than timeoutSeconds ago. */
+  @Query(
+      value =
+          "SELECT EXISTS (SELECT 1 FROM outbox_events WHERE claimed_by <> :owner"
+              + " AND claimed_at > now() - make_interval(secs => :timeoutSeconds))",
+      nativeQuery = true)
+  boolean isClaimedByOther(
+      @Param("owner") String owner, @Param("timeoutSeconds") Long timeoutSeconds);
+
+  /** Claims the oldest events, including the ones owner already had and expired claims. */
+  @Modifying
+  @Query(
+      value =
+          "UPDATE outbox_events SET claimed_by = :owner, claimed_at = now() WHERE id IN ("
+              + "SELECT id FROM outbox_events ORDER BY insert_order LIMIT :limit)",
+      nativeQuery = true)
+  int claimOldest(@Param("owner") String owner, @Param("limit") Integer limit);
+
+  @Query(
+      value =
+          "SELECT * FROM outbox_events WHERE claimed_by = :owner ORDER BY insert_order"
+              + " LIMIT :limit",
+      nativeQuery = true)
+  List<OutboxEvent> listClaimed(@Param("owner") String owner, @Param("limit") Integer limit);
+
+  @Modifying
+  @Query("DELETE FROM OutboxEvent e WHERE e.id IN :ids")
+  void deleteByIds(@Param("ids") Collection<Long> ids);
+}
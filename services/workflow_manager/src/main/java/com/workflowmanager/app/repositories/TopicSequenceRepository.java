@@ -0,0 +1,40 @@
+package com.workflowmanager.app.repositories;
+
+import com.workflowmanager.app.domains.TopicSequence;
+import java.time.Instant;
+import java.util.List;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+
+public interface TopicSequenceRepository extends Repository<TopicSequence, String> {
+  /**
+   * Adds counts[i] to the sequence of topics[i] (starting from 0) and returns the rows as [topic,
+   * seq] with the new values. The rows stay locked until the transaction ends, so sequences are
+   * given in commit order; topics must be sorted so concurrent transactions lock them in the same
+   * order. last_used is set to now, see TopicSequenceCleaner.
+   */
+  @Query(
+      value =
+          "INSERT INTO topic_sequences (topic, seq, last_used)"
+              + " SELECT topic, count, now() FROM unnest(CAST(:topics AS varchar[]),"
+              + " CAST(:counts AS bigint[])) AS t(topic, count)"
+              + " ON CONFLICT (topic) DO UPDATE"
+              + " SET seq = topic_sequences.seq + EXCLUDED.seq, last_used = EXCLUDED.last_used"
+              + " RETURNING topic, seq",
+      nativeQuery = true)
+  List<Object[]> increment(@Param("topics") String[] topics, @Param("counts") Long[] counts);
+
+  /**
+   * Deletes up to limit topics without a sequence number given since before. Topics being
+   * incremented right now are locked and skipped.
+   */
+  @Modifying
+  @Query(
+      value =
+          "DELETE FROM topic_sequences WHERE topic IN (SELECT topic FROM topic_sequences WHERE"
+              + " last_used < :before LIMIT :limit FOR UPDATE SKIP LOCKED)",
+      nativeQuery = true)
+  int deleteUnusedSince(@Param("before") Instant before, @Param("limit") Integer limit);
+}
@@ -0,0 +1,61 @@
+package com.workflowmanager.app.repositories;
+
+import com.workflowmanager.app.domains.WorkflowAttribute;
+import com.workflowmanager.app.domains.WorkflowAttributeDescription.WorkflowAttributeReferenceType;
+import com.workflowmanager.app.domains.WorkflowEntity;
+import com.workflowmanager.app.domains.state.TransitionContext;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * Loads everything a state transition needs in three statements: get, the descriptions of the
+ * workflow (WorkflowAttributeDescriptionRepository.listByWorkflowId) and listAttributes.
+ */
+public interface TransitionContextRepository extends Repository<WorkflowEntity, Integer> {
+  /**
+   * Entity, workflow, current state, next state and the rule between them in one row. Selecting the
+   * workflow and the states in the same row lets their eager associations resolve from the
+   * persistence context. Empty if the entity doesn't exist for the client, the next state (and the
+   * rule) is null if it doesn't.
+   */
+  @Query(
+      "SELECT new com.workflowmanager.app.domains.state.TransitionContext(we, w, fs, ts, r) FROM"
+          + " WorkflowEntity we JOIN we.workflow w JOIN we.currentState fs LEFT JOIN WorkflowState"
+          + " ts ON ts.id = :toStateId AND ts.clientId = :clientId LEFT JOIN ChangeStateRules r ON"
+          + " r.fromId = fs.id AND r.toId = ts.id WHERE we.id = :entityId AND we.clientId ="
+          + " :clientId")
+  Optional<TransitionContext> get(
+      @Param("entityId") Integer entityId,
+      @Param("toStateId") Integer toStateId,
+      @Param("clientId") UUID clientId);
+
+  @Query(
+      "SELECT wa FROM WorkflowAttribute wa WHERE wa.id.parentWorkflow.id = :workflowId AND"
+          + " ((wa.id.refType = :workflowRef AND wa.id.baseEntityId = :workflowId) OR"
+          + " (wa.id.refType = :entityRef AND wa.id.baseEntityId = :entityId) OR (wa.id.refType ="
+          + " :stateRef AND wa.id.baseEntityId IN (:fromStateId, :toStateId)))")
+  List<WorkflowAttribute> listAttributes(
+      @Param("workflowId") Integer workflowId,
+      @Param("entityId") Integer entityId,
+      @Param("fromStateId") Integer fromStateId,
+      @Param("toStateId") Integer toStateId,
+      @Param("workflowRef") WorkflowAttributeReferenceType workflowRef,
+      @Param("entityRef") WorkflowAttributeReferenceType entityRef,
+      @Param("stateRef") WorkflowAttributeReferenceType stateRef);
+
+  /** Workflow, entity, current state and next state attributes of the transition. */
+  default List<WorkflowAttribute> listAttributes(TransitionContext context) {
+    return this.listAttributes(
+        context.getWorkflow().getId(),
+        context.getEntity().getId(),
+        context.getFrom().getId(),
+        context.getTo().getId(),
+        WorkflowAttributeReferenceType.WORKFLOW,
+        WorkflowAttributeReferenceType.WORKFLOW_ENTITY,
+        WorkflowAttributeReferenceType.WORKFLOW_STATE);
+  }
+}
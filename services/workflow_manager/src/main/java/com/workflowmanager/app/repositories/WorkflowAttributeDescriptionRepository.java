@@ -1,12 +1,14 @@
 package com.workflowmanager.app.repositories;
 
-import com.workflowmanager.app.domains.WorkflowAttributeDescription;
+import com.workflowmanager.app.controllers.responses.ResponseAttributeDescription;
 import com.workflowmanager.app.domains.WorkflowAttributeDescription.WorkflowAttributeReferenceType;
+import com.workflowmanager.app.domains.WorkflowAttributeDescription;
 import java.util.List;
 import java.util.Optional;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.Repository;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface WorkflowAttributeDescriptionRepository
     extends Repository<WorkflowAttributeDescription, Integer> {
@@ -39,4 +41,19 @@ public interface WorkflowAttributeDescriptionRepository
           + " :parentWorkflowId")
   List<WorkflowAttributeDescription> listByWorkflowId(
       @Param("parentWorkflowId") Integer parentWorkflowId);
+
+  /** Same as listByWorkflowId selected into responses */
+  @Query(
+      "SELECT "
+          + WorkflowAttributeDescriptionRepository.RESPONSE_PROJECTION
+          + " FROM WorkflowAttributeDescription wad WHERE wad.parentWorkflow.id ="
+          + " :parentWorkflowId")
+  @Transactional(readOnly = true)
+  List<ResponseAttributeDescription> listResponsesByWorkflowId(
+      @Param("parentWorkflowId") Integer parentWorkflowId);
+
+  String RESPONSE_PROJECTION =
+      "new com.workflowmanager.app.controllers.responses.ResponseAttributeDescription("
+          + "wad.parentWorkflowId, wad.refType, wad.attrType, wad.name, wad.creationTime,"
+          + " wad.updateTime, wad.expression, wad.regex, wad.maxLength, wad.enumDescription)";
 }
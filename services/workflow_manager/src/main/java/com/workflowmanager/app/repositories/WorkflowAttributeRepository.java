@@ -1,12 +1,15 @@
 package com.workflowmanager.app.repositories;
 
+import com.workflowmanager.app.controllers.responses.ResponseAttribute;
 import com.workflowmanager.app.domains.WorkflowAttribute;
 import com.workflowmanager.app.domains.WorkflowAttributeDescription.WorkflowAttributeReferenceType;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.Repository;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface WorkflowAttributeRepository extends Repository<WorkflowAttribute, Integer> {
   /** Upsert attribute description */
@@ -19,6 +22,27 @@ public interface WorkflowAttributeRepository extends Repository<WorkflowAttribut
       @Param("baseEntityId") Integer baseEntityId,
       @Param("refType") WorkflowAttributeReferenceType refType);
 
+  /**
+   * Attributes of an entity selected straight into responses. Filters on the attribute's refType
+   * (the same as its description's) so the description isn't joined.
+   */
+  @Query(
+      "SELECT "
+          + WorkflowAttributeRepository.RESPONSE_PROJECTION
+          + " FROM WorkflowAttribute wa WHERE wa.id.baseEntityId = :baseEntityId AND"
+          + " wa.id.refType = :refType")
+  @Transactional(readOnly = true)
+  List<ResponseAttribute> listResponses(
+      @Param("baseEntityId") Integer baseEntityId,
+      @Param("refType") WorkflowAttributeReferenceType refType);
+
+  @Query(
+      "SELECT wa FROM WorkflowAttribute wa WHERE wa.id.baseEntityId IN :baseEntityIds AND"
+          + " wa.id.refType = :refType")
+  List<WorkflowAttribute> listByBaseEntityIds(
+      @Param("baseEntityIds") Collection<Integer> baseEntityIds,
+      @Param("refType") WorkflowAttributeReferenceType refType);
+
   @Query(
       "SELECT wa FROM WorkflowAttribute wa WHERE wa.id.baseEntityId = :baseEntityId AND"
           + " wa.id.description.name = :descriptionName AND wa.id.description.refType = :refType")
@@ -26,4 +50,9 @@ public interface WorkflowAttributeRepository extends Repository<WorkflowAttribut
       @Param("baseEntityId") Integer baseEntityId,
       @Param("descriptionName") String descriptionName,
       @Param("refType") WorkflowAttributeReferenceType refType);
+
+  String RESPONSE_PROJECTION =
+      "new com.workflowmanager.app.controllers.responses.ResponseAttribute(wa.id.description.name,"
+          + " wa.id.parentWorkflow.id, wa.id.baseEntityId, wa.creationTime, wa.updateTime,"
+          + " wa.integer, wa.floating, wa.enumeration, wa.date, wa.timestamp, wa.flag, wa.text)";
 }
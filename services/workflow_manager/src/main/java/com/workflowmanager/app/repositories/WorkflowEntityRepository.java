@@ -1,10 +1,17 @@
 package com.workflowmanager.app.repositories;
 
+import com.workflowmanager.app.controllers.responses.ResponseWorkflowEntity;
 import com.workflowmanager.app.domains.WorkflowEntity;
+import jakarta.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.Repository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
@@ -13,23 +20,78 @@ public interface WorkflowEntityRepository extends Repository<WorkflowEntity, Int
   /** Upsert workflow entity */
   void save(WorkflowEntity workflowEntity);
 
+  /** Upsert workflow entities, updates are sent in jdbc batches */
+  <S extends WorkflowEntity> List<S> saveAll(Iterable<S> workflowEntities);
+
+  void flush();
+
   /** Get workflow entity by id */
   @Query("SELECT we FROM WorkflowEntity we WHERE we.id = :id AND we.clientId = :clientId")
   @Transactional(readOnly = true)
   Optional<WorkflowEntity> getByIdAndClientId(
       @Param("id") Integer id, @Param("clientId") UUID clientId);
 
+  @Query("SELECT COUNT(we) FROM WorkflowEntity we WHERE we.currentStateId = :stateId")
+  long countByState(@Param("stateId") Integer stateId);
+
+  /** List workflow entities by ids, ids that don't exist for the client are ignored */
+  @Query("SELECT we FROM WorkflowEntity we WHERE we.id IN :ids AND we.clientId = :clientId")
+  List<WorkflowEntity> listByIdsAndClient(
+      @Param("ids") Collection<Integer> ids, @Param("clientId") UUID clientId);
+
+  /**
+   * Page of a state's entities ordered by id, starting after afterId (keyset pagination). Selected
+   * straight into responses so nothing is kept in the persistence context.
+   */
   @Query(
-      "SELECT we FROM WorkflowEntity we WHERE we.currentState.id = :stateId AND we.clientId ="
-          + " :clientId")
+      "SELECT "
+          + WorkflowEntityRepository.RESPONSE_PROJECTION
+          + " FROM WorkflowEntity we WHERE we.currentStateId = :stateId AND we.clientId = :clientId"
+          + " AND we.id > :afterId ORDER BY we.id")
   @Transactional(readOnly = true)
-  List<WorkflowEntity> listByStateAndClient(
+  List<ResponseWorkflowEntity> listByStateAndClient(
+      @Param("stateId") Integer stateId,
+      @Param("clientId") UUID clientId,
+      @Param("afterId") Integer afterId,
+      Limit limit);
+
+  /** Same as listByStateAndClient but read from a jdbc cursor, consume it in a transaction */
+  @Query(
+      "SELECT "
+          + WorkflowEntityRepository.RESPONSE_PROJECTION
+          + " FROM WorkflowEntity we WHERE we.currentStateId = :stateId AND we.clientId = :clientId"
+          + " ORDER BY we.id")
+  @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+  Stream<ResponseWorkflowEntity> streamByStateAndClient(
       @Param("stateId") Integer stateId, @Param("clientId") UUID clientId);
 
+  /** Page of a workflow's entities ordered by id, starting after afterId (keyset pagination) */
   @Query(
-      "SELECT we FROM WorkflowEntity we WHERE we.workflow.id = :workflowId AND we.clientId ="
-          + " :clientId")
+      "SELECT "
+          + WorkflowEntityRepository.RESPONSE_PROJECTION
+          + " FROM WorkflowEntity we WHERE we.workflowId = :workflowId AND we.clientId = :clientId"
+          + " AND we.id > :afterId ORDER BY we.id")
   @Transactional(readOnly = true)
-  List<WorkflowEntity> listByWorkflowAndClient(
+  List<ResponseWorkflowEntity> listByWorkflowAndClient(
+      @Param("workflowId") Integer workflowId,
+      @Param("clientId") UUID clientId,
+      @Param("afterId") Integer afterId,
+      Limit limit);
+
+  /** Same as listByWorkflowAndClient but read from a jdbc cursor, consume it in a transaction */
+  @Query(
+      "SELECT "
+          + WorkflowEntityRepository.RESPONSE_PROJECTION
+          + " FROM WorkflowEntity we WHERE we.workflowId = :workflowId AND we.clientId = :clientId"
+          + " ORDER BY we.id")
+  @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+  Stream<ResponseWorkflowEntity> streamByWorkflowAndClient(
       @Param("workflowId") Integer workflowId, @Param("clientId") UUID clientId);
+
+  String RESPONSE_PROJECTION =
+      "new com.workflowmanager.app.controllers.responses.ResponseWorkflowEntity(we.id, we.name,"
+          + " we.userId, we.clientId, we.creationTime, we.updateTime, we.deletionTime,"
+          + " we.workflowId, we.currentStateId)";
+
+  String STREAM_FETCH_SIZE = "1000";
 }
@@ -1,5 +1,6 @@
 package com.workflowmanager.app.repositories;
 
+import com.workflowmanager.app.controllers.responses.ResponseWorkflow;
 import com.workflowmanager.app.domains.Workflow;
 import java.util.List;
 import java.util.Optional;
@@ -15,10 +16,13 @@ public interface WorkflowRepository extends Repository<Workflow, Integer> {
   /** Upsert workflow */
   void save(Workflow workflow);
 
-  /** Upsert workflow */
-  @Query("SELECT w FROM Workflow w WHERE w.clientId = :clientId")
+  /** Selected straight into responses so nothing is kept in the persistence context */
+  @Query(
+      "SELECT "
+          + WorkflowRepository.RESPONSE_PROJECTION
+          + " FROM Workflow w LEFT JOIN w.initialState s WHERE w.clientId = :clientId")
   @Transactional(readOnly = true)
-  List<Workflow> list(@Param("clientId") UUID clientId);
+  List<ResponseWorkflow> list(@Param("clientId") UUID clientId);
 
   /** Get workflow by id and client_id */
   @Query(
@@ -26,4 +30,8 @@ public interface WorkflowRepository extends Repository<Workflow, Integer> {
           + " :clientId")
   @Transactional(readOnly = true)
   Optional<Workflow> getByIdAndClientId(@Param("id") Integer id, @Param("clientId") UUID clientId);
+
+  String RESPONSE_PROJECTION =
+      "new com.workflowmanager.app.controllers.responses.ResponseWorkflow(w.id, w.name, w.userId,"
+          + " w.clientId, w.creationTime, w.updateTime, w.deletionTime, s.id)";
 }
@@ -1,10 +1,16 @@
 package com.workflowmanager.app.repositories;
 
+import com.workflowmanager.app.controllers.responses.ResponseWorkflowState;
 import com.workflowmanager.app.domains.WorkflowState;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.UUID;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.Repository;
 import org.springframework.data.repository.query.Param;
@@ -15,23 +21,80 @@ public interface WorkflowStateRepository extends Repository<WorkflowState, Integ
   /** Upsert workflow state */
   void save(WorkflowState workflowState);
 
-  /** List all states using workflowId. The COUNT is wasteful but ok for now. */
+  /** Upsert workflow states, updates are sent in jdbc batches */
+  <S extends WorkflowState> List<S> saveAll(Iterable<S> workflowStates);
+
+  /**
+   * States of a workflow selected straight into responses, without the change rules (see
+   * ResponseWorkflowState.addChangeRules)
+   */
   @Query(
-      "SELECT new com.workflowmanager.app.domains.WorkflowState(ws, (SELECT COUNT(we) FROM"
-          + " WorkflowEntity we WHERE we.currentState.id = ws.id), ws.workflow.id) FROM"
-          + " WorkflowState ws WHERE  ws.workflow.id = :workflowId AND ws.clientId = :clientId")
-  List<WorkflowState> listByWorkflowIdAndClientId(
+      "SELECT "
+          + WorkflowStateRepository.RESPONSE_PROJECTION
+          + " FROM WorkflowState ws WHERE ws.workflow.id = :workflowId AND ws.clientId = :clientId")
+  @Transactional(readOnly = true)
+  List<ResponseWorkflowState> listByWorkflowIdAndClientId(
       @Param("workflowId") Integer workflowId, @Param("clientId") UUID clientId);
 
   /** Get workflow state by id */
-  @Query(
-      "SELECT new com.workflowmanager.app.domains.WorkflowState(ws, (SELECT COUNT(we) FROM"
-          + " WorkflowEntity we WHERE we.currentState.id = :id), ws.workflow.id) FROM WorkflowState"
-          + " ws WHERE ws.id = :id AND ws.clientId = :clientId")
+  @Query("SELECT ws FROM WorkflowState ws WHERE ws.id = :id AND ws.clientId = :clientId")
   @Transactional(readOnly = true)
   Optional<WorkflowState> getByIdAndClientId(
       @Param("id") Integer id, @Param("clientId") UUID clientId);
 
+  /** List workflow states by ids, ids that don't exist for the client are ignored */
+  @Query("SELECT ws FROM WorkflowState ws WHERE ws.id IN :ids AND ws.clientId = :clientId")
+  List<WorkflowState> listByIdsAndClientId(
+      @Param("ids") Collection<Integer> ids, @Param("clientId") UUID clientId);
+
+  /**
+   * Relative update of the entity counter, the row stays locked until the transaction ends. Sets
+   * lastCurrentEntitiesChange too, StateCounterReconciler only counts the states where it moved.
+   */
+  @Modifying
+  @Query(
+      "UPDATE WorkflowState ws SET ws.totalEntities = ws.totalEntities + :delta,"
+          + " ws.lastCurrentEntitiesChange = :changeTime WHERE ws.id = :id")
+  @Transactional
+  void addToTotalEntities(
+      @Param("id") Integer id, @Param("delta") Long delta, @Param("changeTime") Instant changeTime);
+
+  default void addToTotalEntities(Integer id, Long delta) {
+    this.addToTotalEntities(id, delta, Instant.now());
+  }
+
+  /**
+   * Apply counter deltas by state id. States are updated in id order so concurrent moves lock them
+   * in the same order.
+   */
+  default void addToTotalEntities(Map<Integer, Long> deltas) {
+    new TreeMap<>(deltas)
+        .forEach(
+            (id, delta) -> {
+              if (delta != 0) this.addToTotalEntities(id, delta);
+            });
+  }
+
+  /** Fixes drift of the counter, lastCurrentEntitiesChange is left as it is */
+  @Modifying
+  @Query(
+      "UPDATE WorkflowState ws SET ws.totalEntities = ws.totalEntities + :drift WHERE ws.id = :id")
+  @Transactional
+  void correctTotalEntities(@Param("id") Integer id, @Param("drift") Long drift);
+
+  /** Empty if the state doesn't exist */
+  @Query("SELECT ws.totalEntities FROM WorkflowState ws WHERE ws.id = :id")
+  Optional<Long> getTotalEntities(@Param("id") Integer id);
+
+  /** (id, lastCurrentEntitiesChange) of every state */
+  @Query("SELECT ws.id, ws.lastCurrentEntitiesChange FROM WorkflowState ws")
+  @Transactional(readOnly = true)
+  List<Object[]> listLastCurrentEntitiesChanges();
+
+  /** Transaction scoped advisory lock, false if another transaction holds it */
+  @Query(value = "SELECT pg_try_advisory_xact_lock(:key)", nativeQuery = true)
+  boolean tryLock(@Param("key") Long key);
+
   /** List workflow state by id */
   @Query(
       "SELECT ws FROM WorkflowState ws LEFT OUTER JOIN ws.workflow WHERE ws.id = :id AND"
@@ -39,4 +102,9 @@ public interface WorkflowStateRepository extends Repository<WorkflowState, Integ
   @Transactional(readOnly = true)
   Optional<WorkflowState> getByIdAndClientIdWithWorkflow(
       @Param("id") Integer id, @Param("clientId") UUID clientId);
+
+  String RESPONSE_PROJECTION =
+      "new com.workflowmanager.app.controllers.responses.ResponseWorkflowState(ws.id, ws.name,"
+          + " ws.userId, ws.clientId, ws.creationTime, ws.updateTime, ws.deletionTime,"
+          + " ws.workflow.id, ws.totalEntities)";
 }
@@ -0,0 +1,131 @@
+-- Schema as hibernate (ddl-auto=update) created it before migrations owned it, with identity ids
+-- and without the outbox or the state counters. Databases created that way are baselined at this
+-- version (spring.flyway.baseline-on-migrate) and start at V2.
+
+CREATE TABLE workflows (
+    id integer GENERATED BY DEFAULT AS IDENTITY,
+    name varchar(50) NOT NULL,
+    user_id uuid NOT NULL,
+    client_id uuid NOT NULL,
+    creation_time timestamp(6) with time zone NOT NULL,
+    update_time timestamp(6) with time zone NOT NULL,
+    deletion_time timestamp(6) with time zone,
+    intial_state_id integer UNIQUE,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE workflow_states (
+    id integer GENERATED BY DEFAULT AS IDENTITY,
+    name varchar(50) NOT NULL,
+    user_id uuid NOT NULL,
+    client_id uuid NOT NULL,
+    creation_time timestamp(6) with time zone NOT NULL,
+    update_time timestamp(6) with time zone NOT NULL,
+    deletion_time timestamp(6) with time zone,
+    -- the workflow of the state
+    current_state_id2 integer NOT NULL REFERENCES workflows (id),
+    last_current_entities_change timestamp(6) with time zone,
+    PRIMARY KEY (id)
+);
+
+ALTER TABLE workflows
+    ADD FOREIGN KEY (intial_state_id) REFERENCES workflow_states (id);
+
+CREATE TABLE workflow_entities (
+    id integer GENERATED BY DEFAULT AS IDENTITY,
+    name varchar(50) NOT NULL,
+    user_id uuid NOT NULL,
+    client_id uuid NOT NULL,
+    creation_time timestamp(6) with time zone NOT NULL,
+    update_time timestamp(6) with time zone NOT NULL,
+    deletion_time timestamp(6) with time zone,
+    workflow_id2 integer NOT NULL REFERENCES workflows (id),
+    current_state_id2 integer NOT NULL REFERENCES workflow_states (id),
+    workflow_id integer,
+    current_state_id integer,
+    time_moved_to_current_state timestamp(6) with time zone,
+    PRIMARY KEY (id)
+);
+
+CREATE INDEX workflow_entities_current_state_id_index ON workflow_entities (current_state_id);
+CREATE INDEX workflow_entities_workflow_id_index ON workflow_entities (workflow_id);
+
+CREATE TABLE workflow_attribute_descriptions (
+    name varchar(64) NOT NULL,
+    parent_workflow_id2 integer NOT NULL REFERENCES workflows (id),
+    parent_workflow_id integer,
+    ref_type smallint CHECK (ref_type BETWEEN 0 AND 2),
+    attr_type smallint CHECK (attr_type BETWEEN 0 AND 6),
+    creation_time timestamp(6) with time zone,
+    update_time timestamp(6) with time zone,
+    expression jsonb,
+    regex jsonb,
+    max_length integer,
+    enum_description varchar(255) ARRAY,
+    PRIMARY KEY (name, parent_workflow_id2)
+);
+
+CREATE TABLE workflow_attributes (
+    description_name varchar(64) NOT NULL,
+    description_parent_workflow_id2 integer NOT NULL,
+    parent_workflow_id integer NOT NULL REFERENCES workflows (id),
+    base_entity_id integer NOT NULL,
+    ref_type smallint NOT NULL CHECK (ref_type BETWEEN 0 AND 2),
+    creation_time timestamp(6) with time zone,
+    update_time timestamp(6) with time zone,
+    "integer" bigint,
+    floating float(53),
+    enumeration varchar(255),
+    "date" timestamp(6),
+    "timestamp" timestamp(6) with time zone,
+    flag boolean,
+    "text" varchar(255),
+    PRIMARY KEY (
+        base_entity_id,
+        description_name,
+        description_parent_workflow_id2,
+        parent_workflow_id,
+        ref_type),
+    FOREIGN KEY (description_name, description_parent_workflow_id2)
+        REFERENCES workflow_attribute_descriptions (name, parent_workflow_id2)
+);
+
+CREATE TABLE change_state_rules (
+    from_id integer NOT NULL REFERENCES workflow_states (id),
+    to_id integer NOT NULL REFERENCES workflow_states (id),
+    expression_names varchar(255) ARRAY,
+    expressions varchar(255) ARRAY,
+    from_id2 integer NOT NULL,
+    to_id2 integer NOT NULL,
+    creation_time timestamp(6) with time zone NOT NULL,
+    update_time timestamp(6) with time zone,
+    PRIMARY KEY (from_id, to_id)
+);
+
+-- join table of Workflow.attrs, never written
+CREATE TABLE workflows_attrs (
+    workflow_id integer NOT NULL REFERENCES workflows (id),
+    attrs_base_entity_id integer NOT NULL,
+    attrs_description_name varchar(64) NOT NULL,
+    attrs_description_parent_workflow_id2 integer NOT NULL,
+    attrs_parent_workflow_id integer NOT NULL,
+    attrs_ref_type smallint NOT NULL CHECK (attrs_ref_type BETWEEN 0 AND 2),
+    UNIQUE (
+        attrs_base_entity_id,
+        attrs_description_name,
+        attrs_description_parent_workflow_id2,
+        attrs_parent_workflow_id,
+        attrs_ref_type),
+    FOREIGN KEY (
+        attrs_base_entity_id,
+        attrs_description_name,
+        attrs_description_parent_workflow_id2,
+        attrs_parent_workflow_id,
+        attrs_ref_type)
+        REFERENCES workflow_attributes (
+            base_entity_id,
+            description_name,
+            description_parent_workflow_id2,
+            parent_workflow_id,
+            ref_type)
+);
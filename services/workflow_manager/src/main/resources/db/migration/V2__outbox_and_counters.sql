@@ -0,0 +1,48 @@
+-- Everything added to the schema since V1: pooled entity ids, state counters, the outbox and the
+-- topic sequences. Databases that ddl-auto=update already changed part of the way get the rest,
+-- hence the IF NOT EXISTS.
+
+-- Workflow.attrs was never written, hibernate only created its join table
+DROP TABLE IF EXISTS workflows_attrs;
+
+-- base_entities_seq replaces the identity ids, start it after the ids already given out
+CREATE SEQUENCE IF NOT EXISTS base_entities_seq START WITH 1 INCREMENT BY 50;
+SELECT setval(
+    'base_entities_seq',
+    GREATEST(
+        (SELECT last_value FROM base_entities_seq),
+        (SELECT COALESCE(MAX(id), 0) FROM workflows),
+        (SELECT COALESCE(MAX(id), 0) FROM workflow_states),
+        (SELECT COALESCE(MAX(id), 0) FROM workflow_entities)));
+ALTER TABLE workflows ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE workflow_states ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE workflow_entities ALTER COLUMN id DROP IDENTITY IF EXISTS;
+
+-- WorkflowState.totalEntities, counted once here and kept with relative updates from then on
+ALTER TABLE workflow_states ADD COLUMN IF NOT EXISTS total_entities bigint DEFAULT 0 NOT NULL;
+UPDATE workflow_states s
+SET total_entities = (
+    SELECT COUNT(*) FROM workflow_entities e WHERE e.current_state_id = s.id);
+
+CREATE SEQUENCE IF NOT EXISTS outbox_events_seq START WITH 1 INCREMENT BY 100;
+CREATE TABLE IF NOT EXISTS outbox_events (
+    id bigint NOT NULL,
+    body bytea NOT NULL,
+    content_type varchar(255) NOT NULL,
+    routing_key varchar(255) DEFAULT 'workflow.entities.mutations' NOT NULL,
+    creation_time timestamp(6) with time zone NOT NULL,
+    PRIMARY KEY (id)
+);
+-- outbox tables created before these columns only had text messages to the fixed routing key
+ALTER TABLE outbox_events
+    ADD COLUMN IF NOT EXISTS content_type varchar(255) DEFAULT 'text/plain' NOT NULL;
+ALTER TABLE outbox_events ALTER COLUMN content_type DROP DEFAULT;
+ALTER TABLE outbox_events
+    ADD COLUMN IF NOT EXISTS routing_key varchar(255)
+        DEFAULT 'workflow.entities.mutations' NOT NULL;
+
+CREATE TABLE IF NOT EXISTS topic_sequences (
+    topic varchar(100) NOT NULL,
+    seq bigint NOT NULL,
+    PRIMARY KEY (topic)
+);
@@ -0,0 +1,35 @@
+-- Indexes for the queries in repositories/. Built CONCURRENTLY so writes to the tables go on while
+-- they're built, which can't run in a transaction (see V3__query_indexes.sql.conf). If one of them
+-- fails it's left INVALID: drop it before running the migration again.
+
+-- WorkflowRepository.list
+CREATE INDEX CONCURRENTLY workflows_client_id_index ON workflows (client_id);
+
+-- WorkflowStateRepository.listByWorkflowIdAndClientId
+CREATE INDEX CONCURRENTLY workflow_states_workflow_client_index
+    ON workflow_states (current_state_id2, client_id);
+
+-- WorkflowEntityRepository list/stream by state and by workflow: equality on the parent and the
+-- client, keyset on id. The included columns are the rest of RESPONSE_PROJECTION so pages can be
+-- read from the index alone. They replace the single column parent indexes of V1, which also read
+-- the rows of other clients.
+DROP INDEX CONCURRENTLY IF EXISTS workflow_entities_current_state_id_index;
+DROP INDEX CONCURRENTLY IF EXISTS workflow_entities_workflow_id_index;
+CREATE INDEX CONCURRENTLY workflow_entities_state_client_id_index
+    ON workflow_entities (current_state_id, client_id, id)
+    INCLUDE (name, user_id, creation_time, update_time, deletion_time, workflow_id);
+CREATE INDEX CONCURRENTLY workflow_entities_workflow_client_id_index
+    ON workflow_entities (workflow_id, client_id, id)
+    INCLUDE (name, user_id, creation_time, update_time, deletion_time, current_state_id);
+
+-- WorkflowAttributeRepository list/listByBaseEntityIds/getByBaseEntityAndDescriptionName and
+-- TransitionContextRepository.listAttributes (one range per (ref_type, base_entity_id) pair)
+CREATE INDEX CONCURRENTLY workflow_attributes_base_entity_index
+    ON workflow_attributes (base_entity_id, ref_type, description_name);
+
+-- WorkflowAttributeDescriptionRepository list/listByWorkflowId, by name uses the primary key
+CREATE INDEX CONCURRENTLY workflow_attribute_descriptions_workflow_index
+    ON workflow_attribute_descriptions (parent_workflow_id2, ref_type);
+
+-- ChangeStateRulesRepository.listByFromIds and the rule join of TransitionContextRepository.get
+CREATE INDEX CONCURRENTLY change_state_rules_from_to_index ON change_state_rules (from_id2, to_id2);
@@ -0,0 +1,5 @@
+-- When the topic last got a sequence number, TopicSequenceCleaner deletes the topics that haven't
+-- for workflow-manager.topic-sequences.retention. Not indexed: it changes on every increment and an
+-- index on it would turn those into non-HOT updates, the cleaner can afford to scan the table.
+ALTER TABLE topic_sequences
+    ADD COLUMN last_used timestamp(6) with time zone DEFAULT now() NOT NULL;
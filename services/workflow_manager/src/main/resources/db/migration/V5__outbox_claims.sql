@@ -0,0 +1,16 @@
+-- OutboxRelay claims a batch in a short transaction, sends it after the commit and deletes it once
+-- confirmed. Claims expire after workflow-manager.outbox.claim-timeout, rows of a relay that went
+-- down are taken over by the next one.
+ALTER TABLE outbox_events ADD COLUMN claimed_at timestamp(6) with time zone;
+ALTER TABLE outbox_events ADD COLUMN claimed_by varchar(64);
+
+-- Order the relay sends in. Ids come in blocks of 100 per node so they aren't insert order, this
+-- one comes from a sequence without cache at insert time. Events of a topic are inserted after
+-- its topic_sequences row is locked, so they get it in the order their transactions commit. Only
+-- that per topic order holds: it's taken at insert, not at commit, so events of different topics
+-- can be sent in another order than their transactions committed.
+CREATE SEQUENCE outbox_events_insert_order_seq;
+ALTER TABLE outbox_events
+    ADD COLUMN insert_order bigint DEFAULT nextval('outbox_events_insert_order_seq') NOT NULL;
+ALTER SEQUENCE outbox_events_insert_order_seq OWNED BY outbox_events.insert_order;
+CREATE INDEX outbox_events_insert_order_index ON outbox_events (insert_order);
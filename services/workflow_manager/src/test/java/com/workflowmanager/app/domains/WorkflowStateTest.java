@@ -0,0 +1,189 @@
+package com.workflowmanager.app.domains;
+
+import static org.junit.Assert.assertEquals;
+
+import com.workflowmanager.app.controllers.requests.RequestNewWorkflow;
+import com.workflowmanager.app.controllers.requests.RequestNewWorkflowState;
+import com.workflowmanager.app.controllers.requests.RequestSetChangeStateRule;
+import com.workflowmanager.app.controllers.responses.ResponseChangeStateRules;
+import com.workflowmanager.app.controllers.responses.ResponseWorkflowState;
+import com.workflowmanager.app.core.AuthorizationDTO;
+import com.workflowmanager.app.domains.state.ChangeStateRules;
+import com.workflowmanager.app.domains.state.NewChangeStateRulesDTO;
+import com.workflowmanager.app.repositories.ChangeStateRulesRepository;
+import com.workflowmanager.app.repositories.WorkflowStateRepository;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.model.naming.CamelCaseToUnderscoresNamingStrategy;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.jpa.repository.Query;
+
+/**
+ * Statements run to build state responses, from managed states and from the listing queries, on a
+ * throwaway h2 database created from the mappings (create-drop, like the openapi profile) since the
+ * migrations are postgres only.
+ */
+public class WorkflowStateTest {
+  private static final int STATES = 30;
+
+  private SessionFactory sessionFactory;
+
+  @Before
+  public void setup() {
+    this.sessionFactory =
+        new Configuration()
+            .setProperty(AvailableSettings.JAKARTA_JDBC_URL, "jdbc:h2:mem:workflow_state_test")
+            .setProperty(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+            .setProperty(AvailableSettings.GENERATE_STATISTICS, "true")
+            .setProperty(AvailableSettings.JAKARTA_VALIDATION_MODE, "none")
+            .setProperty(
+                AvailableSettings.PHYSICAL_NAMING_STRATEGY,
+                CamelCaseToUnderscoresNamingStrategy.class.getName())
+            .addAnnotatedClass(Workflow.class)
+            .addAnnotatedClass(WorkflowState.class)
+            .addAnnotatedClass(WorkflowEntity.class)
+            .addAnnotatedClass(WorkflowAttribute.class)
+            .addAnnotatedClass(WorkflowAttributeDescription.class)
+            .addAnnotatedClass(ChangeStateRules.class)
+            .buildSessionFactory();
+  }
+
+  @After
+  public void close() {
+    this.sessionFactory.close();
+  }
+
+  @Test
+  public void responsesOfStatesLoadTheirRulesInOneStatement() {
+    Integer workflowId = this.createStates(STATES);
+    Statistics statistics = this.sessionFactory.getStatistics();
+
+    this.sessionFactory.inTransaction(
+        session -> {
+          List<WorkflowState> states =
+              session
+                  .createSelectionQuery(
+                      "FROM WorkflowState s WHERE s.workflow.id = :workflowId", WorkflowState.class)
+                  .setParameter("workflowId", workflowId)
+                  .getResultList();
+          assertEquals(STATES, states.size());
+
+          statistics.clear();
+          List<ResponseWorkflowState> responses =
+              states.stream().map(ResponseWorkflowState::new).toList();
+
+          // the rules of every state at once (@BatchSize), not one statement per state
+          assertEquals(1, statistics.getPrepareStatementCount());
+          for (ResponseWorkflowState response : responses)
+            assertEquals(1, response.changeRules.size());
+        });
+  }
+
+  @Test
+  public void listingStatesTakesTheSameStatementsForAnyNumberOfStates() {
+    UUID clientId = UUID.randomUUID();
+
+    // WorkflowStateController.listStates, the rules are what WorkflowDefinitionCache loads
+    for (int count : new int[] {STATES, 4 * STATES}) {
+      Integer workflowId = this.createStates(clientId, count);
+      Statistics statistics = this.sessionFactory.getStatistics();
+
+      this.sessionFactory.inTransaction(
+          session -> {
+            statistics.clear();
+            List<ResponseWorkflowState> states =
+                session
+                    .createSelectionQuery(
+                        query(
+                            WorkflowStateRepository.class,
+                            "listByWorkflowIdAndClientId",
+                            Integer.class,
+                            UUID.class),
+                        ResponseWorkflowState.class)
+                    .setParameter("workflowId", workflowId)
+                    .setParameter("clientId", clientId)
+                    .getResultList();
+            List<ResponseChangeStateRules> rules =
+                session
+                    .createSelectionQuery(
+                        query(
+                            ChangeStateRulesRepository.class,
+                            "listResponsesByWorkflowId",
+                            Integer.class),
+                        ResponseChangeStateRules.class)
+                    .setParameter("workflowId", workflowId)
+                    .getResultList();
+            ResponseWorkflowState.addChangeRules(states, rules);
+
+            // the states and the rules, whatever the number of states
+            assertEquals(2, statistics.getPrepareStatementCount());
+            assertEquals(count, states.size());
+            for (ResponseWorkflowState state : states) assertEquals(1, state.changeRules.size());
+          });
+    }
+  }
+
+  /** JPQL of a repository method, so the test runs the query the controller does. */
+  private static String query(Class<?> repository, String method, Class<?>... parameterTypes) {
+    try {
+      return repository.getMethod(method, parameterTypes).getAnnotation(Query.class).value();
+    } catch (NoSuchMethodException err) {
+      throw new IllegalStateException(err);
+    }
+  }
+
+  private Integer createStates(int count) {
+    return this.createStates(UUID.randomUUID(), count);
+  }
+
+  /** count states in a ring, each one with a rule to the next. Returns the workflow id. */
+  private Integer createStates(UUID clientId, int count) {
+    AuthorizationDTO auth =
+        new AuthorizationDTO(
+            Map.of(
+                "client-id", clientId.toString(),
+                "user-id", UUID.randomUUID().toString()));
+
+    return this.sessionFactory.fromTransaction(
+        session -> {
+          RequestNewWorkflow newWorkflow = new RequestNewWorkflow();
+          newWorkflow.name = "workflow";
+          Workflow workflow = new Workflow(new NewWorkflowDTO(newWorkflow, auth));
+          session.persist(workflow);
+
+          List<WorkflowState> states = new ArrayList<>();
+          for (int i = 0; i < count; i++) {
+            RequestNewWorkflowState newState = new RequestNewWorkflowState();
+            newState.name = "state " + i;
+            WorkflowState state =
+                new WorkflowState(new NewWorkflowStateDTO(newState, auth), workflow);
+            session.persist(state);
+            states.add(state);
+          }
+
+          for (int i = 0; i < count; i++) {
+            WorkflowState from = states.get(i);
+            WorkflowState to = states.get((i + 1) % count);
+
+            RequestSetChangeStateRule request = new RequestSetChangeStateRule();
+            request.toId = to.getId();
+            request.expressionNames = List.of("always");
+            request.expressions = List.of("true");
+
+            session.persist(
+                new ChangeStateRules(
+                    from, List.of(), to, new NewChangeStateRulesDTO(request, from.getId())));
+          }
+
+          return workflow.getId();
+        });
+  }
+}
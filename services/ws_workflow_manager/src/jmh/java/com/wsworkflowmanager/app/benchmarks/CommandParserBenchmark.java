@@ -0,0 +1,222 @@
+package com.wsworkflowmanager.app.benchmarks;
+
+import com.wsworkflowmanager.app.CommandParser;
+import com.wsworkflowmanager.app.Heartbeats;
+import com.wsworkflowmanager.app.InMemoryReplayStore;
+import com.wsworkflowmanager.app.OutboundQueue;
+import com.wsworkflowmanager.app.Receiver;
+import com.wsworkflowmanager.app.SubscriptionIndex;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * Parsing of a resubscription to keyCount keys (half of them with @seq), as sent by the web client
+ * when a board is scrolled. parse resolves the keys to interned topics, split is the previous
+ * split(" ") / split(";") parsing for comparison. receive is the whole Receiver path of a session
+ * subscribing to the keys and unsubscribing from them again: parsing, the subscription index and
+ * the replay from an InMemoryReplayStore that has the sequence numbers of the keys.
+ *
+ * <p>Run with {@code bazel run //services/ws_workflow_manager:ws_workflow_manager_jmh}, the gc
+ * profiler is enabled by default and reports the allocation rate next to the ops/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandParserBenchmark {
+  @Param({"10", "100", "500"})
+  public int keyCount;
+
+  private CommandParser parser;
+  private String message;
+
+  private Receiver receiver;
+  private WebSocketSession session;
+  private TextMessage subscribe;
+  private TextMessage unsubscribe;
+
+  @Setup
+  public void setup() {
+    this.parser = new CommandParser(65536);
+
+    String clientId = UUID.randomUUID().toString();
+    StringBuilder message = new StringBuilder("S ");
+    for (int i = 0; i < this.keyCount; i++) {
+      if (i > 0) message.append(';');
+      message.append(clientId).append(":WORKFLOW_ENTITY:").append(i);
+      if (i % 2 == 0) message.append('@').append(1000 + i);
+    }
+    this.message = message.toString();
+
+    this.setupReceiver(clientId);
+  }
+
+  private void setupReceiver(String clientId) {
+    InMemoryReplayStore replayStore =
+        new InMemoryReplayStore(32, 1024, Duration.ofMinutes(10), Duration.ofDays(1), 64 << 20);
+    for (int i = 0; i < this.keyCount; i += 2)
+      replayStore.addEvent(
+          List.of(clientId + ":WORKFLOW_ENTITY:" + i), new long[] {1000 + i}, "U event");
+
+    this.receiver =
+        new Receiver(
+            new SubscriptionIndex(
+                new SubscriptionIndex.TopicListener() {
+                  @Override
+                  public void topicAdded(String topic) {}
+
+                  @Override
+                  public void topicRemoved(String topic) {}
+                }),
+            replayStore,
+            new Heartbeats(Duration.ofSeconds(1), Duration.ofSeconds(60), Duration.ofSeconds(30)),
+            this.parser,
+            256,
+            OutboundQueue.OverflowPolicy.DROP_OLDEST,
+            Duration.ZERO,
+            Duration.ofSeconds(5));
+    this.session = new NoopSession();
+    this.receiver.afterConnectionEstablished(this.session);
+
+    this.subscribe = new TextMessage(this.message);
+    this.unsubscribe = new TextMessage("D" + this.message.substring(1));
+  }
+
+  @Benchmark
+  public CommandParser.Command parse(Blackhole blackhole) {
+    return this.parser.parse(
+        this.message,
+        (topic, afterSeq) -> {
+          blackhole.consume(topic);
+          blackhole.consume(afterSeq);
+        });
+  }
+
+  @Benchmark
+  public void receive() {
+    this.receiver.handleTextMessage(this.session, this.subscribe);
+    this.receiver.handleTextMessage(this.session, this.unsubscribe);
+  }
+
+  @Benchmark
+  public void split(Blackhole blackhole) {
+    String[] commandFull = this.message.split(" ");
+    if (commandFull.length != 2) return;
+
+    for (String keyToSubscribe : commandFull[1].split(";")) {
+      int at = keyToSubscribe.indexOf('@');
+
+      blackhole.consume(at < 0 ? keyToSubscribe : keyToSubscribe.substring(0, at));
+      blackhole.consume(
+          at < 0 ? -1 : Long.parseLong(keyToSubscribe, at + 1, keyToSubscribe.length(), 10));
+    }
+  }
+
+  /** Session that is always open and drops what it's sent. */
+  private static class NoopSession implements WebSocketSession {
+    private final String id = UUID.randomUUID().toString();
+    private final Map<String, Object> attributes = new HashMap<>();
+
+    @Override
+    public String getId() {
+      return this.id;
+    }
+
+    @Override
+    public URI getUri() {
+      return null;
+    }
+
+    @Override
+    public HttpHeaders getHandshakeHeaders() {
+      return new HttpHeaders();
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+      return this.attributes;
+    }
+
+    @Override
+    public Principal getPrincipal() {
+      return null;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+      return null;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+      return null;
+    }
+
+    @Override
+    public String getAcceptedProtocol() {
+      return null;
+    }
+
+    @Override
+    public void setTextMessageSizeLimit(int messageSizeLimit) {}
+
+    @Override
+    public int getTextMessageSizeLimit() {
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void setBinaryMessageSizeLimit(int messageSizeLimit) {}
+
+    @Override
+    public int getBinaryMessageSizeLimit() {
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public List<WebSocketExtension> getExtensions() {
+      return List.of();
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) {}
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {}
+
+    @Override
+    public void close(CloseStatus status) {}
+  }
+}
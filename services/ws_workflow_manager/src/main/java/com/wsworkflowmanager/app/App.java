@@ -1,5 +1,7 @@
 package com.wsworkflowmanager.app;
 
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.core.Base64UrlNamingStrategy;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
 import org.springframework.amqp.core.Queue;
@@ -19,6 +21,7 @@ public class App {
 
   static final String registerQueueName = "workflow-manager-event-register";
   static final String notifyQueueName = "workflow-manager-event-notify";
+  static final String mutationsRoutingKey = "workflow.entities.mutations";
 
   @Value("${spring.rabbitmq.host}")
   String rabbitHost;
@@ -57,14 +60,16 @@ public class App {
         new RedisStandaloneConfiguration(this.redisHost, this.redisPort));
   }
 
+  /** Shared by every node, each event is stored in the ReplayStore once. */
   @Bean
   Queue registerQueue() {
     return new Queue(App.registerQueueName, false);
   }
 
+  /** Exclusive queue of this node, bound by TenantBindings to the clients of its sessions. */
   @Bean
   Queue notifyQueue() {
-    return new Queue(App.notifyQueueName, false);
+    return new AnonymousQueue(new Base64UrlNamingStrategy(App.notifyQueueName + "."));
   }
 
   @Bean
@@ -72,16 +77,12 @@ public class App {
     return new TopicExchange(App.topicExchangeName);
   }
 
+  /** Mutations of every client (# also matches the routing key without client and workflow). */
   @Bean
   Binding bindingRegister(TopicExchange exchange) {
     return BindingBuilder.bind(this.registerQueue())
         .to(exchange)
-        .with("workflow.entities.mutations");
-  }
-
-  @Bean
-  Binding bindingNotify(TopicExchange exchange) {
-    return BindingBuilder.bind(this.notifyQueue()).to(exchange).with("workflow.entities.mutations");
+        .with(App.mutationsRoutingKey + ".#");
   }
 
   public static void main(String[] args) {
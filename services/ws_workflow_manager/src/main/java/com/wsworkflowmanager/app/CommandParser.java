@@ -0,0 +1,122 @@
+package com.wsworkflowmanager.app;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Parser of the messages sent by the websocket clients (see Receiver), works over the payload with
+ * offsets instead of splitting it.
+ *
+ * <p>Keys are resolved to the interned String of the topic, the same instance every time while it
+ * stays in the table, so resubscribing known keys doesn't allocate and the subscription maps
+ * compare them by identity first. The table is a direct mapped cache: a key whose slot is taken by
+ * another one replaces it, which bounds its memory without tracking which topics are still in use.
+ */
+@Component
+public class CommandParser {
+  public enum Command {
+    PING,
+    /** S key[@seq];key[@seq]... */
+    SUBSCRIBE,
+    /** D key;key... */
+    UNSUBSCRIBE,
+    /** D D */
+    UNSUBSCRIBE_ALL,
+    INVALID,
+  }
+
+  /** Gets the keys of a SUBSCRIBE or UNSUBSCRIBE, in order, before parse returns. */
+  public interface KeyConsumer {
+    /** afterSeq is ReplayStore.NO_SEQ when the key has no @seq (or an invalid one) */
+    void accept(String topic, long afterSeq);
+  }
+
+  // more digits than a long always has
+  private static final int MAX_SEQ_DIGITS = 18;
+
+  // racy reads and writes are fine, Strings are immutable and safely published
+  private final String[] topics;
+  private final int mask;
+
+  public CommandParser(
+      @Value("${ws-workflow-manager.topics.intern-capacity:65536}") int internCapacity) {
+    int capacity = Integer.highestOneBit(Math.max(internCapacity, 16) - 1) << 1;
+    this.topics = new String[capacity];
+    this.mask = capacity - 1;
+  }
+
+  public Command parse(CharSequence payload, KeyConsumer keys) {
+    int length = payload.length();
+
+    if (length == 4
+        && payload.charAt(0) == 'p'
+        && payload.charAt(1) == 'i'
+        && payload.charAt(2) == 'n'
+        && payload.charAt(3) == 'g') return Command.PING;
+
+    // "X arg", the argument doesn't have spaces
+    if (length < 3 || payload.charAt(1) != ' ') return Command.INVALID;
+    for (int i = 2; i < length; i++) if (payload.charAt(i) == ' ') return Command.INVALID;
+
+    char command = payload.charAt(0);
+    if (command == 'D' && length == 3 && payload.charAt(2) == 'D') return Command.UNSUBSCRIBE_ALL;
+    if (command != 'S' && command != 'D') return Command.INVALID;
+
+    int start = 2;
+    while (start < length) {
+      int end = start;
+      int at = -1;
+      while (end < length && payload.charAt(end) != ';') {
+        if (at < 0 && payload.charAt(end) == '@') at = end;
+        end++;
+      }
+
+      int keyEnd = at < 0 ? end : at;
+      if (keyEnd > start)
+        keys.accept(
+            this.intern(payload, start, keyEnd),
+            at < 0 ? ReplayStore.NO_SEQ : parseSeq(payload, at + 1, end));
+
+      start = end + 1;
+    }
+
+    return command == 'S' ? Command.SUBSCRIBE : Command.UNSUBSCRIBE;
+  }
+
+  /** The interned String with the chars in [start, end). */
+  public String intern(CharSequence chars, int start, int end) {
+    // same as String.hashCode, so it can be compared with the (cached) hash of the interned one
+    int hash = 0;
+    for (int i = start; i < end; i++) hash = 31 * hash + chars.charAt(i);
+
+    int slot = (hash ^ (hash >>> 16)) & this.mask;
+    String topic = this.topics[slot];
+    if (topic != null && topic.hashCode() == hash && equals(topic, chars, start, end)) return topic;
+
+    topic = chars.subSequence(start, end).toString();
+    this.topics[slot] = topic;
+
+    return topic;
+  }
+
+  private static boolean equals(String topic, CharSequence chars, int start, int end) {
+    if (topic.length() != end - start) return false;
+
+    for (int i = start; i < end; i++) if (topic.charAt(i - start) != chars.charAt(i)) return false;
+
+    return true;
+  }
+
+  private static long parseSeq(CharSequence chars, int start, int end) {
+    if (start == end || end - start > MAX_SEQ_DIGITS) return ReplayStore.NO_SEQ;
+
+    long seq = 0;
+    for (int i = start; i < end; i++) {
+      char c = chars.charAt(i);
+      if (c < '0' || c > '9') return ReplayStore.NO_SEQ;
+      seq = seq * 10 + (c - '0');
+    }
+
+    return seq;
+  }
+}
@@ -0,0 +1,286 @@
+package com.wsworkflowmanager.app;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * Last time each session was heard from, the pongs to send and the sessions to close when they've
+ * been quiet for idle-timeout.
+ *
+ * <p>Sessions get a slot and their state lives in arrays indexed by it, a ping only writes a long
+ * and, once per tick, appends the slot to the pongs to send. Deadlines are kept in a hashed timer
+ * wheel with one bucket per tick: a bucket is only visited when its tick comes, and the sessions
+ * that were seen since they were put in it are moved to the bucket of their new deadline instead of
+ * being rescheduled on every ping. Deadlines further than the wheel goes around are put in its
+ * last bucket and checked again then.
+ *
+ * <p>A session's deadline is first the time it becomes stale (stale-after), then the time it's
+ * closed. The stale count is updated when a session crosses one and when a stale session is heard
+ * from again, the ws.sessions gauges read it without looking at the slots.
+ */
+@Component
+public class Heartbeats implements MeterBinder {
+  private static final int WHEEL_SIZE = 64;
+  private static final int NONE = -1;
+  private static final TextMessage PONG = new TextMessage("pong");
+
+  private final long tickMillis;
+  private final long idleMillis;
+  private final long staleMillis;
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+  // state of each slot, everything below is guarded by this
+  private SubscriptionIndex.Subscriber[] subscribers = new SubscriptionIndex.Subscriber[1024];
+  private long[] lastSeen = new long[1024];
+  private boolean[] pongPending = new boolean[1024];
+  private boolean[] stale = new boolean[1024];
+  // doubly linked list of each wheel bucket, NONE ends it
+  private int[] next = new int[1024];
+  private int[] prev = new int[1024];
+  private int[] bucketOf = new int[1024];
+
+  private final int[] buckets = new int[WHEEL_SIZE];
+  private long tick;
+
+  private int[] freeSlots = new int[1024];
+  private int freeCount = 0;
+  private int slotsUsed = 0;
+  private int sessions = 0;
+  private int staleSessions = 0;
+
+  private int[] pongs = new int[1024];
+  private int pongCount = 0;
+
+  public Heartbeats(
+      @Value("${ws-workflow-manager.heartbeat.tick:PT1S}") Duration tick,
+      @Value("${ws-workflow-manager.heartbeat.idle-timeout:PT60S}") Duration idleTimeout,
+      @Value("${ws-workflow-manager.heartbeat.stale-after:PT30S}") Duration staleAfter) {
+    this.tickMillis = tick.toMillis();
+    this.idleMillis = idleTimeout.toMillis();
+    this.staleMillis = staleAfter.toMillis();
+
+    Arrays.fill(this.buckets, NONE);
+    this.tick = System.currentTimeMillis() / this.tickMillis;
+
+    this.executor.scheduleAtFixedRate(
+        this::tick, this.tickMillis, this.tickMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void register(SubscriptionIndex.Subscriber subscriber) {
+    int slot = this.allocate();
+    long now = System.currentTimeMillis();
+
+    this.subscribers[slot] = subscriber;
+    this.lastSeen[slot] = now;
+    this.pongPending[slot] = false;
+    this.stale[slot] = false;
+    subscriber.heartbeatSlot = slot;
+    this.sessions++;
+
+    this.link(slot, this.bucketFor(now + this.staleMillis));
+  }
+
+  public synchronized void unregister(SubscriptionIndex.Subscriber subscriber) {
+    int slot = subscriber.heartbeatSlot;
+    if (slot == NONE || this.subscribers[slot] != subscriber) return;
+
+    this.unlink(slot);
+    this.free(slot);
+  }
+
+  /** Any message from the session, it's still there. */
+  public synchronized void seen(SubscriptionIndex.Subscriber subscriber) {
+    int slot = subscriber.heartbeatSlot;
+    if (slot == NONE || this.subscribers[slot] != subscriber) return;
+
+    this.markSeen(slot);
+  }
+
+  /** Like seen, and answers with a pong on the next tick. */
+  public synchronized void ping(SubscriptionIndex.Subscriber subscriber) {
+    int slot = subscriber.heartbeatSlot;
+    if (slot == NONE || this.subscribers[slot] != subscriber) return;
+
+    this.markSeen(slot);
+    if (this.pongPending[slot]) return;
+
+    this.pongPending[slot] = true;
+    if (this.pongCount == this.pongs.length)
+      this.pongs = Arrays.copyOf(this.pongs, this.pongs.length * 2);
+    this.pongs[this.pongCount++] = slot;
+  }
+
+  public synchronized int getSessionCount() {
+    return this.sessions;
+  }
+
+  /** Sessions heard from within stale-after. */
+  public synchronized int getLiveCount() {
+    return this.sessions - this.staleSessions;
+  }
+
+  /** Sessions not heard from for stale-after, closed once they reach idle-timeout. */
+  public synchronized int getStaleCount() {
+    return this.staleSessions;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("ws.sessions.live", this, Heartbeats::getLiveCount)
+        .description("Websocket sessions heard from within stale-after")
+        .register(registry);
+    Gauge.builder("ws.sessions.stale", this, Heartbeats::getStaleCount)
+        .description("Websocket sessions not heard from for stale-after")
+        .register(registry);
+  }
+
+  private void markSeen(int slot) {
+    long now = System.currentTimeMillis();
+    this.lastSeen[slot] = now;
+    if (!this.stale[slot]) return;
+
+    // its bucket is the one of its idle deadline, it has to be checked for stale-after again
+    this.stale[slot] = false;
+    this.staleSessions--;
+    this.unlink(slot);
+    this.link(slot, this.bucketFor(now + this.staleMillis));
+  }
+
+  private void tick() {
+    List<WebSocketSession> idle = new ArrayList<>();
+
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+
+      for (int i = 0; i < this.pongCount; i++) {
+        int slot = this.pongs[i];
+        // the slot may have been freed (and reused) since the ping
+        if (!this.pongPending[slot]) continue;
+
+        this.pongPending[slot] = false;
+        this.subscribers[slot].getOutbound().send("pong", PONG);
+      }
+      this.pongCount = 0;
+
+      long target = now / this.tickMillis;
+      // behind more than a turn, one turn visits every bucket anyway
+      if (target - this.tick > WHEEL_SIZE) this.tick = target - WHEEL_SIZE;
+
+      while (this.tick < target) {
+        this.tick++;
+        this.expire((int) (this.tick % WHEEL_SIZE), now, idle);
+      }
+    }
+
+    if (idle.isEmpty()) return;
+
+    System.out.println("Closing " + idle.size() + " idle websocket sessions");
+    for (WebSocketSession session : idle) {
+      try {
+        session.close(CloseStatus.SESSION_NOT_RELIABLE);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Closes the sessions of the bucket past their idle deadline, marks the ones past stale-after and
+   * moves the rest to their next deadline.
+   */
+  private void expire(int bucket, long now, List<WebSocketSession> idle) {
+    int slot = this.buckets[bucket];
+    this.buckets[bucket] = NONE;
+
+    while (slot != NONE) {
+      int nextSlot = this.next[slot];
+      this.bucketOf[slot] = NONE;
+
+      long idleAt = this.lastSeen[slot] + this.idleMillis;
+      long staleAt = this.lastSeen[slot] + this.staleMillis;
+      if (idleAt <= now) {
+        idle.add(this.subscribers[slot].getOutbound().getSession());
+        this.free(slot);
+      } else {
+        if (!this.stale[slot] && staleAt <= now) {
+          this.stale[slot] = true;
+          this.staleSessions++;
+        }
+        this.link(slot, this.bucketFor(this.stale[slot] ? idleAt : staleAt));
+      }
+
+      slot = nextSlot;
+    }
+  }
+
+  private int bucketFor(long deadline) {
+    long ticks = deadline / this.tickMillis;
+    ticks = Math.max(ticks, this.tick + 1);
+    ticks = Math.min(ticks, this.tick + WHEEL_SIZE - 1);
+
+    return (int) (ticks % WHEEL_SIZE);
+  }
+
+  private void link(int slot, int bucket) {
+    int head = this.buckets[bucket];
+
+    this.next[slot] = head;
+    this.prev[slot] = NONE;
+    this.bucketOf[slot] = bucket;
+    if (head != NONE) this.prev[head] = slot;
+    this.buckets[bucket] = slot;
+  }
+
+  private void unlink(int slot) {
+    int bucket = this.bucketOf[slot];
+    if (bucket == NONE) return;
+
+    if (this.prev[slot] == NONE) this.buckets[bucket] = this.next[slot];
+    else this.next[this.prev[slot]] = this.next[slot];
+    if (this.next[slot] != NONE) this.prev[this.next[slot]] = this.prev[slot];
+
+    this.bucketOf[slot] = NONE;
+  }
+
+  private int allocate() {
+    if (this.freeCount > 0) return this.freeSlots[--this.freeCount];
+
+    if (this.slotsUsed == this.subscribers.length) {
+      int capacity = this.subscribers.length * 2;
+      this.subscribers = Arrays.copyOf(this.subscribers, capacity);
+      this.lastSeen = Arrays.copyOf(this.lastSeen, capacity);
+      this.pongPending = Arrays.copyOf(this.pongPending, capacity);
+      this.stale = Arrays.copyOf(this.stale, capacity);
+      this.next = Arrays.copyOf(this.next, capacity);
+      this.prev = Arrays.copyOf(this.prev, capacity);
+      this.bucketOf = Arrays.copyOf(this.bucketOf, capacity);
+      this.freeSlots = Arrays.copyOf(this.freeSlots, capacity);
+    }
+
+    return this.slotsUsed++;
+  }
+
+  private void free(int slot) {
+    this.subscribers[slot].heartbeatSlot = NONE;
+    this.subscribers[slot] = null;
+    this.pongPending[slot] = false;
+    if (this.stale[slot]) this.staleSessions--;
+    this.stale[slot] = false;
+    this.freeSlots[this.freeCount++] = slot;
+    this.sessions--;
+  }
+}
@@ -0,0 +1,250 @@
+package com.wsworkflowmanager.app;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Events kept in the process, for single node deployments. Each key has a ring buffer of its last
+ * events and every second has a bucket with the keys written in it. Once a second leaves the
+ * retention only the keys of its bucket are trimmed, so expiring doesn't scan every key. When the
+ * events take more than max-bytes the oldest seconds are expired early.
+ *
+ * <p>The latest sequence number of each key is kept apart, for latest-seq-ttl after it was
+ * published. It outlives the events so those are scanned once a minute instead of bucketed.
+ */
+@Component
+@ConditionalOnProperty(name = "ws-workflow-manager.replay.store", havingValue = "memory")
+public class InMemoryReplayStore implements ReplayStore {
+  // rough size of an event besides its characters: ring slots, string header and array
+  private static final long EVENT_OVERHEAD_BYTES = 64;
+
+  private final int eventsPerKey;
+  private final int eventsPerWildcard;
+  private final long maxBytes;
+  private final long retentionSeconds;
+  private final long latestSeqTtlSeconds;
+
+  private final ConcurrentHashMap<String, Ring> rings = new ConcurrentHashMap<>();
+  private final AtomicLong bytes = new AtomicLong();
+  private final ConcurrentHashMap<String, LatestSeq> latestSeqs = new ConcurrentHashMap<>();
+  // bucket of second s is buckets[s % buckets.length], reused once s leaves the retention
+  private final Set<String>[] buckets;
+  private long expiredUntil;
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+  @SuppressWarnings("unchecked")
+  public InMemoryReplayStore(
+      @Value("${ws-workflow-manager.replay.events-per-key:32}") int eventsPerKey,
+      @Value("${ws-workflow-manager.replay.events-per-wildcard:1024}") int eventsPerWildcard,
+      @Value("${ws-workflow-manager.replay.retention:PT10M}") Duration retention,
+      @Value("${ws-workflow-manager.replay.latest-seq-ttl:P1D}") Duration latestSeqTtl,
+      @Value("${ws-workflow-manager.replay.memory.max-bytes:67108864}") long maxBytes) {
+    this.eventsPerKey = eventsPerKey;
+    this.eventsPerWildcard = eventsPerWildcard;
+    this.maxBytes = maxBytes;
+    this.retentionSeconds = Math.max(retention.toSeconds(), WINDOW_SECONDS);
+    this.latestSeqTtlSeconds = Math.max(latestSeqTtl.toSeconds(), this.retentionSeconds);
+
+    this.buckets = new Set[(int) this.retentionSeconds + 1];
+    for (int i = 0; i < this.buckets.length; i++) this.buckets[i] = ConcurrentHashMap.newKeySet();
+    this.expiredUntil = now() - this.retentionSeconds;
+
+    this.executor.scheduleAtFixedRate(this::expire, 1, 1, TimeUnit.SECONDS);
+    this.executor.scheduleAtFixedRate(this::expireLatestSeqs, 1, 1, TimeUnit.MINUTES);
+  }
+
+  @Override
+  public void addEvent(List<String> keys, long[] seqs, String event) {
+    long second = now();
+
+    for (int i = 0; i < keys.size(); i++) {
+      long seq = seqs[i];
+
+      this.rings.compute(
+          keys.get(i),
+          (k, ring) -> {
+            if (ring == null) ring = new Ring(this.limit(k));
+            this.bytes.addAndGet(ring.add(event, seq, second));
+            return ring;
+          });
+      this.bucket(second).add(keys.get(i));
+
+      if (seq != NO_SEQ) this.latestSeqs.put(keys.get(i), new LatestSeq(seq, second));
+    }
+
+    if (this.bytes.get() > this.maxBytes) this.evict();
+  }
+
+  @Override
+  public List<Replay> getEvents(String[] keys, long[] afterSeqs, int count) {
+    long windowStart = now() - WINDOW_SECONDS;
+    List<Replay> replays = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      Ring ring = this.rings.get(keys[i]);
+      LatestSeq latest = this.latestSeqs.get(keys[i]);
+
+      replays.add(
+          ReplayStore.select(
+              ring == null ? List.of() : ring.retained(),
+              afterSeqs[i],
+              latest == null ? NO_SEQ : latest.seq(),
+              windowStart,
+              this.limit(keys[i])));
+    }
+
+    return replays;
+  }
+
+  /** Number of keys with events, for monitoring. */
+  public int size() {
+    return this.rings.size();
+  }
+
+  public long getBytes() {
+    return this.bytes.get();
+  }
+
+  private synchronized void expire() {
+    long retentionStart = now() - this.retentionSeconds;
+
+    while (this.expiredUntil < retentionStart) {
+      this.expiredUntil++;
+      this.expireSecond(this.expiredUntil);
+    }
+  }
+
+  private void expireLatestSeqs() {
+    long ttlStart = now() - this.latestSeqTtlSeconds;
+    this.latestSeqs.values().removeIf(latest -> latest.second() < ttlStart);
+  }
+
+  /** Expires whole seconds, oldest first, until the events fit in max-bytes again. */
+  private synchronized void evict() {
+    long now = now();
+
+    while (this.bytes.get() > this.maxBytes && this.expiredUntil < now) {
+      this.expiredUntil++;
+      this.expireSecond(this.expiredUntil);
+    }
+
+    // a single second with more than max-bytes
+    if (this.bytes.get() > this.maxBytes) this.expireSecond(now);
+  }
+
+  /** Drops the events up to second from the keys written in that second. */
+  private void expireSecond(long second) {
+    Set<String> bucket = this.bucket(second);
+
+    for (String key : bucket) {
+      bucket.remove(key);
+
+      Ring ring =
+          this.rings.computeIfPresent(
+              key,
+              (k, r) -> {
+                this.bytes.addAndGet(-r.trim(second));
+                return r.isEmpty() ? null : r;
+              });
+
+      // written again in a later second, make sure that bucket has it
+      if (ring != null) this.bucket(ring.newestSecond()).add(key);
+    }
+  }
+
+  private int limit(String key) {
+    return ReplayStore.limit(key, this.eventsPerKey, this.eventsPerWildcard);
+  }
+
+  private Set<String> bucket(long second) {
+    return this.buckets[(int) Math.floorMod(second, (long) this.buckets.length)];
+  }
+
+  private static long now() {
+    return Instant.now().getEpochSecond();
+  }
+
+  private static long sizeOf(String event) {
+    return EVENT_OVERHEAD_BYTES + 2L * event.length();
+  }
+
+  private record LatestSeq(long seq, long second) {}
+
+  /** Last events of a key, oldest first. Overwrites the oldest when full. */
+  private static class Ring {
+    private final String[] events;
+    private final long[] seqs;
+    private final long[] seconds;
+    private int head = 0;
+    private int size = 0;
+
+    Ring(int capacity) {
+      this.events = new String[capacity];
+      this.seqs = new long[capacity];
+      this.seconds = new long[capacity];
+    }
+
+    /** Returns the change in bytes. */
+    synchronized long add(String event, long seq, long second) {
+      long delta = sizeOf(event);
+      int tail = (this.head + this.size) % this.events.length;
+
+      if (this.size == this.events.length) {
+        delta -= sizeOf(this.events[this.head]);
+        this.head = (this.head + 1) % this.events.length;
+      } else {
+        this.size++;
+      }
+
+      this.events[tail] = event;
+      this.seqs[tail] = seq;
+      this.seconds[tail] = second;
+
+      return delta;
+    }
+
+    /** Removes the events up to second, returns the bytes freed. */
+    synchronized long trim(long second) {
+      long freed = 0;
+
+      while (this.size > 0 && this.seconds[this.head] <= second) {
+        freed += sizeOf(this.events[this.head]);
+        this.events[this.head] = null;
+        this.head = (this.head + 1) % this.events.length;
+        this.size--;
+      }
+
+      return freed;
+    }
+
+    synchronized List<Retained> retained() {
+      List<Retained> retained = new ArrayList<>(this.size);
+
+      for (int i = 0; i < this.size; i++) {
+        int idx = (this.head + i) % this.events.length;
+        retained.add(new Retained(this.seqs[idx], this.seconds[idx], this.events[idx]));
+      }
+
+      return retained;
+    }
+
+    synchronized long newestSecond() {
+      return this.seconds[(this.head + this.size - 1) % this.events.length];
+    }
+
+    synchronized boolean isEmpty() {
+      return this.size == 0;
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package com.wsworkflowmanager.app;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * Bounded send queue of a websocket session. Messages are enqueued from any thread and written by
+ * a single drain task at a time on the executor, so a slow session only delays itself and the
+ * session never sees concurrent sends.
+ *
+ * <p>Updates sent with sendCoalesced are held for the coalesce window and only the latest of each
+ * key is queued, bursts of updates to the same entity cost one message per window. send queues the
+ * held updates before its message, so they only collapse with the updates of their own key and
+ * nothing sent after them overtakes them.
+ */
+public class OutboundQueue {
+  public enum OverflowPolicy {
+    /** discards the oldest queued message */
+    DROP_OLDEST,
+    /** replaces the queued message of the same key, drops the oldest if there's none */
+    COALESCE,
+    /** closes the session, the client is expected to reconnect and resubscribe */
+    DISCONNECT,
+  }
+
+  private final WebSocketSession session;
+  private final Executor executor;
+  private final ScheduledExecutorService scheduler;
+  private final int capacity;
+  private final OverflowPolicy policy;
+  private final Duration coalesceWindow;
+
+  private final Deque<Outbound> queue = new ArrayDeque<>();
+  // queued message of each key, only kept with COALESCE
+  private final Map<String, Outbound> queuedByKey = new HashMap<>();
+  private boolean draining = false;
+  private boolean closed = false;
+
+  // held by sendCoalesced until the window ends, latest message of each key
+  private final Map<String, TextMessage> held = new LinkedHashMap<>();
+  private boolean flushScheduled = false;
+
+  public OutboundQueue(
+      WebSocketSession session,
+      Executor executor,
+      ScheduledExecutorService scheduler,
+      int capacity,
+      OverflowPolicy policy,
+      Duration coalesceWindow) {
+    this.session = session;
+    this.executor = executor;
+    this.scheduler = scheduler;
+    this.capacity = capacity;
+    this.policy = policy;
+    this.coalesceWindow = coalesceWindow;
+  }
+
+  public WebSocketSession getSession() {
+    return this.session;
+  }
+
+  /** key identifies what the message is about, a newer message for it may replace this one */
+  public void send(String key, TextMessage message) {
+    boolean startDrain;
+
+    synchronized (this) {
+      startDrain = this.enqueueHeld();
+      startDrain |= this.enqueue(key, message);
+    }
+
+    if (startDrain) this.executor.execute(this::drain);
+  }
+
+  /** Like send, but a newer message of the same key within the window replaces this one. */
+  public void sendCoalesced(String key, TextMessage message) {
+    if (this.coalesceWindow.isZero()) {
+      this.send(key, message);
+      return;
+    }
+
+    synchronized (this) {
+      if (this.closed) return;
+
+      this.held.put(key, message);
+
+      if (this.flushScheduled) return;
+      this.flushScheduled = true;
+    }
+
+    this.scheduler.schedule(this::flush, this.coalesceWindow.toNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  private void flush() {
+    boolean startDrain;
+
+    synchronized (this) {
+      this.flushScheduled = false;
+      startDrain = this.enqueueHeld();
+    }
+
+    if (startDrain) this.executor.execute(this::drain);
+  }
+
+  /** Queues the held messages in the order they were first held, holding the lock. */
+  private boolean enqueueHeld() {
+    if (this.held.isEmpty()) return false;
+
+    boolean startDrain = false;
+    for (Map.Entry<String, TextMessage> entry : this.held.entrySet())
+      startDrain |= this.enqueue(entry.getKey(), entry.getValue());
+    this.held.clear();
+
+    return startDrain;
+  }
+
+  /** Queues the message holding the lock, true if a drain must be started. */
+  private boolean enqueue(String key, TextMessage message) {
+    if (this.closed) return false;
+
+    if (this.queue.size() >= this.capacity) {
+      Outbound queued = this.queuedByKey.get(key);
+      if (queued != null) {
+        queued.message = message;
+        return false;
+      }
+
+      if (this.policy == OverflowPolicy.DISCONNECT) {
+        this.closed = true;
+        this.queue.clear();
+        this.queuedByKey.clear();
+        this.executor.execute(this::close);
+        return false;
+      }
+
+      Outbound dropped = this.queue.pollFirst();
+      this.queuedByKey.remove(dropped.key, dropped);
+    }
+
+    Outbound outbound = new Outbound(key, message);
+    this.queue.addLast(outbound);
+    if (this.policy == OverflowPolicy.COALESCE) this.queuedByKey.put(key, outbound);
+
+    if (this.draining) return false;
+    this.draining = true;
+    return true;
+  }
+
+  private void drain() {
+    while (true) {
+      Outbound outbound;
+
+      synchronized (this) {
+        outbound = this.queue.pollFirst();
+        if (outbound == null) {
+          this.draining = false;
+          return;
+        }
+        this.queuedByKey.remove(outbound.key, outbound);
+      }
+
+      if (!this.session.isOpen()) continue;
+
+      try {
+        this.session.sendMessage(outbound.message);
+      } catch (Exception err) {
+        System.out.println(
+            "Failed to send to websocket session " + this.session.getId() + ": " + err);
+
+        // the client missed a message, it resumes from its seqs once it reconnects
+        synchronized (this) {
+          this.closed = true;
+          this.queue.clear();
+          this.queuedByKey.clear();
+          this.held.clear();
+          this.draining = false;
+        }
+        this.close(CloseStatus.SERVER_ERROR);
+        return;
+      }
+    }
+  }
+
+  private void close() {
+    System.out.println("Closing slow websocket session " + this.session.getId());
+    this.close(CloseStatus.SESSION_NOT_RELIABLE);
+  }
+
+  private void close(CloseStatus status) {
+    try {
+      this.session.close(status);
+    } catch (IOException err) {
+      System.out.println(
+          "Failed to close websocket session " + this.session.getId() + ": " + err.getMessage());
+    }
+  }
+
+  private static class Outbound {
+    final String key;
+    TextMessage message;
+
+    Outbound(String key, TextMessage message) {
+      this.key = key;
+      this.message = message;
+    }
+  }
+}
@@ -1,20 +1,22 @@
 package com.wsworkflowmanager.app;
 
-import java.time.Instant;
+import com.workflowmanager.codec.MutationEnvelope;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Deque;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeoutException;
+import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
@@ -26,148 +28,299 @@ import org.springframework.web.socket.handler.TextWebSocketHandler;
  *
  * <p>Subscribe/unsubscribe: S/D <key|D> D D unsubs the connection to all its current topics S <key>
  * subscribes the connection to a specific topic the topic key format:
- * <clientId>:<entityType>:<entityId>
+ * <clientId>:<entityType>:<entityId>. S <key>@<seq> also replays the events of the topic after seq,
+ * or sends {"msgType":"SNAPSHOT","topic":key,"seq":seq} if they aren't all in the ReplayStore
+ * anymore and the client has to load the topic again. Only the messages of a key's own object are
+ * numbered in it: the workflow key resumes the workflow and its attribute descriptions, the
+ * changes of its states and entities are resumed from their own keys.
+ *
+ * <p>Wildcards: S <clientId>:WORKFLOW:<workflowId>:* subscribes to everything under the workflow
+ * (the workflow, its states, entities, descriptions and attributes), one subscription for a whole
+ * board. Messages are also delivered and stored under the wildcard topic of their workflow, which
+ * comes from the rabbit routing key. A wildcard replays the last WINDOW_SECONDS, its @seq is
+ * ignored since the wildcard topic has no sequence of its own. If the workflow had more events in
+ * the window than events-per-wildcard it gets the SNAPSHOT message (seq -1) instead.
  *
  * <p>Sending updates to client. This is sent from the service and forwarded to client or stored in
- * redis without the key
+ * the ReplayStore without the key
  *
  * <p>UPSERT: U <key> data DELETE: D <key>
  */
 @Component
 public class Receiver extends TextWebSocketHandler {
-  // Map to store connections by connection ID
-  private final Map<String, WebSocketSession> connections = new ConcurrentHashMap<>();
-
-  // Map to store (entity type, entity id) -> set of connection IDs
-  // key -> Set<entityId>
-  private final Map<String, Set<String>> entityConnections = new ConcurrentHashMap<>();
-  // entityId -> Set<key>
-  private final Map<String, Set<String>> entityConnectionsInv = new ConcurrentHashMap<>();
-  private final PongManager pongManager = new PongManager(this.connections);
-  private final EventRegistry eventRegistry;
-
-  private final StringRedisTemplate redisTemplate;
-
-  public Receiver(StringRedisTemplate redisTemplate) {
-    this.redisTemplate = redisTemplate;
-    this.eventRegistry = new EventRegistry(this.redisTemplate, this.entityConnections);
+  // connected sessions and topic key -> sessions
+  private final SubscriptionIndex subscriptions;
+  private final Heartbeats heartbeats;
+  private final CommandParser commandParser;
+  private final ReplayStore replayStore;
+  private final ThreadLocal<SubscribedKeys> subscribedKeys =
+      ThreadLocal.withInitial(SubscribedKeys::new);
+
+  // writes of every session, see OutboundQueue
+  private final ExecutorService sendExecutor = Executors.newVirtualThreadPerTaskExecutor();
+  private final ScheduledExecutorService coalesceScheduler =
+      Executors.newSingleThreadScheduledExecutor();
+  private final int sendQueueCapacity;
+  private final OutboundQueue.OverflowPolicy overflowPolicy;
+  private final Duration coalesceWindow;
+  private final Duration bindTimeout;
+
+  public Receiver(
+      SubscriptionIndex subscriptions,
+      ReplayStore replayStore,
+      Heartbeats heartbeats,
+      CommandParser commandParser,
+      @Value("${ws-workflow-manager.outbound.queue-capacity:256}") int sendQueueCapacity,
+      @Value("${ws-workflow-manager.outbound.overflow-policy:DROP_OLDEST}")
+          OutboundQueue.OverflowPolicy overflowPolicy,
+      @Value("${ws-workflow-manager.outbound.coalesce-window:PT0.05S}") Duration coalesceWindow,
+      @Value("${ws-workflow-manager.routing.bind-timeout:PT5S}") Duration bindTimeout) {
+    this.subscriptions = subscriptions;
+    this.heartbeats = heartbeats;
+    this.commandParser = commandParser;
+    this.replayStore = replayStore;
+    this.sendQueueCapacity = sendQueueCapacity;
+    this.overflowPolicy = overflowPolicy;
+    this.coalesceWindow = coalesceWindow;
+    this.bindTimeout = bindTimeout;
   }
 
   @Override
   public void afterConnectionEstablished(WebSocketSession session) {
-    String connectionId = session.getId();
-    this.connections.put(connectionId, session);
+    SubscriptionIndex.Subscriber subscriber =
+        this.subscriptions.register(
+            new OutboundQueue(
+                session,
+                this.sendExecutor,
+                this.coalesceScheduler,
+                this.sendQueueCapacity,
+                this.overflowPolicy,
+                this.coalesceWindow));
+
+    this.heartbeats.register(subscriber);
   }
 
   @Override
   public void handleTextMessage(WebSocketSession session, TextMessage textMessage) {
-    String message = textMessage.getPayload();
-
-    System.out.println(message);
-
-    if (message.contentEquals("ping")) {
-      this.pongManager.addPong(session.getId());
-      return;
-    }
+    SubscriptionIndex.Subscriber subscriber = this.subscriptions.get(session.getId());
+    if (subscriber == null) return;
 
-    String[] commandFull = message.split(" ");
+    String payload = textMessage.getPayload();
+    SubscribedKeys subscribed = this.subscribedKeys.get();
+    subscribed.reset(subscriber, payload.startsWith("S "));
 
-    if (commandFull.length != 2) return;
+    CommandParser.Command command = this.commandParser.parse(payload, subscribed);
 
-    String command = commandFull[0];
-    String arg = commandFull[1];
+    switch (command) {
+      case PING -> this.heartbeats.ping(subscriber);
+      case UNSUBSCRIBE_ALL -> {
+        this.heartbeats.seen(subscriber);
+        this.subscriptions.unsubscribeAll(subscriber);
+      }
+      case UNSUBSCRIBE -> this.heartbeats.seen(subscriber);
+      case SUBSCRIBE -> {
+        this.heartbeats.seen(subscriber);
+        this.awaitBindings(subscriber, subscribed);
+        this.replay(subscriber, subscribed);
+      }
+      case INVALID -> {}
+    }
 
-    this.handleCommand(session.getId(), command, arg);
+    // doesn't keep the session reachable from the thread
+    subscribed.reset(null, false);
   }
 
-  private void handleCommand(String sessionId, String command, String arg) {
-    if (command.equals("D") && arg.equals("D")) {
-      Set<String> subscriptionKeys = entityConnectionsInv.get(sessionId);
-      if (subscriptionKeys == null) return;
-
-      for (String key : subscriptionKeys) {
-        Set<String> subscribers = this.entityConnections.get(key);
+  /**
+   * Waits until the messages of the new topics reach this node (see TenantBindings), the ones
+   * published before are in the replay and the ones after are sent live. Past bind-timeout it
+   * replays anyway, what was published in between is lost as it was before the wait.
+   */
+  private void awaitBindings(SubscriptionIndex.Subscriber subscriber, SubscribedKeys subscribed) {
+    if (subscribed.bindings.isEmpty()) return;
+
+    try {
+      CompletableFuture.allOf(subscribed.bindings.toArray(CompletableFuture[]::new))
+          .get(this.bindTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException | ExecutionException err) {
+      System.out.println("Replaying before the topics of " + subscriber.getId() + " are bound");
+    } catch (InterruptedException err) {
+      Thread.currentThread().interrupt();
+    }
+  }
 
-        if (subscribers != null) subscribers.remove(sessionId);
+  /** Events of the keys after their seq, one round trip to the store for all of them. */
+  private void replay(SubscriptionIndex.Subscriber subscriber, SubscribedKeys subscribed) {
+    List<ReplayStore.Replay> replays =
+        this.replayStore.getEvents(subscribed.keys, subscribed.afterSeqs, subscribed.size);
+
+    for (int i = 0; i < subscribed.size; i++) {
+      String key = subscribed.keys[i];
+      ReplayStore.Replay replay = replays.get(i);
+
+      if (replay.snapshotNeeded()) {
+        subscriber
+            .getOutbound()
+            .send(
+                key,
+                new TextMessage(
+                    String.format(
+                        "{\"msgType\":\"SNAPSHOT\",\"topic\":\"%s\",\"seq\":%d}",
+                        key, subscribed.afterSeqs[i])));
+        continue;
       }
 
-      this.entityConnectionsInv.remove(sessionId);
-    } else if (command.equals("D")) {
-      Set<String> subscribers = this.entityConnections.get(arg);
-
-      if (subscribers != null) subscribers.remove(sessionId);
-    } else if (command.equals("S")) {
-      String[] keysToSubscribe = arg.split(";");
-
-      List<String> keys = new ArrayList<>();
+      for (String event : replay.events())
+        subscriber.getOutbound().send(key, new TextMessage(event));
+    }
+  }
 
-      for (String key : keysToSubscribe) {
-        this.entityConnections.computeIfAbsent(key, k -> new HashSet()).add(sessionId);
-        this.entityConnectionsInv.computeIfAbsent(sessionId, k -> new HashSet()).add(key);
+  /**
+   * (Un)subscribes the keys as they're parsed and keeps the subscribed ones with their seqs for the
+   * replay, and the bindings of the topics that aren't routed to this node yet. Reused by the
+   * messages handled on the same thread, so a message allocates nothing here once the arrays are
+   * large enough.
+   */
+  private final class SubscribedKeys implements CommandParser.KeyConsumer {
+    private SubscriptionIndex.Subscriber subscriber;
+    private boolean subscribing;
+    String[] keys = new String[16];
+    long[] afterSeqs = new long[16];
+    int size = 0;
+    final List<CompletableFuture<Void>> bindings = new ArrayList<>();
+
+    void reset(SubscriptionIndex.Subscriber subscriber, boolean subscribing) {
+      Arrays.fill(this.keys, 0, this.size, null);
+      this.size = 0;
+      this.bindings.clear();
+      this.subscriber = subscriber;
+      this.subscribing = subscribing;
+    }
 
-        keys.addLast(key);
+    @Override
+    public void accept(String key, long afterSeq) {
+      if (!this.subscribing) {
+        Receiver.this.subscriptions.unsubscribe(this.subscriber, key);
+        return;
       }
 
-      for (String key : keys)
-        for (String event : this.eventRegistry.getRecentEvents(key)) {
-          WebSocketSession session = this.connections.get(sessionId);
+      CompletableFuture<Void> bound = Receiver.this.subscriptions.subscribe(this.subscriber, key);
+      if (!bound.isDone() && !this.bindings.contains(bound)) this.bindings.add(bound);
 
-          this.sendMessage(session, event);
-        }
+      if (this.size == this.keys.length) {
+        this.keys = Arrays.copyOf(this.keys, this.size * 2);
+        this.afterSeqs = Arrays.copyOf(this.afterSeqs, this.size * 2);
+      }
+      this.keys[this.size] = key;
+      this.afterSeqs[this.size] = SubscriptionIndex.isWildcard(key) ? ReplayStore.NO_SEQ : afterSeq;
+      this.size++;
     }
   }
 
   @Override
   public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
-    String sessionId = session.getId();
-    connections.remove(sessionId);
+    SubscriptionIndex.Subscriber subscriber = this.subscriptions.get(session.getId());
+    if (subscriber != null) this.heartbeats.unregister(subscriber);
 
-    this.handleCommand(sessionId, "D", "D");
+    this.subscriptions.unregister(session.getId());
   }
 
   @RabbitListener(queues = App.registerQueueName)
-  public void receiveMessageRegister(String message) {
-    System.out.println("REGISTER: Received <" + message + ">");
-    RabbitMessage parsedMessage = new RabbitMessage(message);
+  public void receiveMessageRegister(Message message) {
+    RabbitMessage parsedMessage = this.parse(message);
+    if (parsedMessage == null || parsedMessage.isNull()) return;
+
+    System.out.println("REGISTER: Received " + parsedMessage.keys);
 
-    for (String key : parsedMessage.keys) this.eventRegistry.addEvent(key, parsedMessage.payload);
+    this.replayStore.addEvent(parsedMessage.keys, parsedMessage.seqs, parsedMessage.getPayload());
   }
 
-  @RabbitListener(queues = App.notifyQueueName)
-  public void receiveMessageNotify(String message) {
-    RabbitMessage parsedMessage = new RabbitMessage(message);
-    if (parsedMessage.isNull()) return;
+  @RabbitListener(queues = "#{notifyQueue.name}")
+  public void receiveMessageNotify(Message message) {
+    RabbitMessage parsedMessage = this.parse(message);
+    if (parsedMessage == null || parsedMessage.isNull()) return;
 
-    Set<String> connIds = new HashSet<>();
+    Collection<SubscriptionIndex.Subscriber> subscribers =
+        this.subscriptions.subscribers(parsedMessage.keys);
 
-    for (String key : parsedMessage.keys) {
-      Set<String> newConnIds = entityConnections.get(key);
+    if (subscribers.isEmpty()) return;
 
-      if (newConnIds != null) connIds.addAll(newConnIds);
+    // same message for every session, the payload is only converted once
+    TextMessage textMessage = parsedMessage.toTextMessage();
+    String coalesceKey = parsedMessage.coalesceKey();
+    String key = coalesceKey == null ? parsedMessage.keys.getLast() : coalesceKey;
+    for (SubscriptionIndex.Subscriber subscriber : subscribers) {
+      if (coalesceKey == null) subscriber.getOutbound().send(key, textMessage);
+      else subscriber.getOutbound().sendCoalesced(key, textMessage);
     }
+  }
+
+  /** "key@seq" -> seq, at is the index of '@' (-1 if there's none) */
+  private static long parseSeq(String key, int at) {
+    if (at < 0) return ReplayStore.NO_SEQ;
 
-    for (String connId : connIds) {
-      WebSocketSession session = connections.get(connId);
-      this.sendMessage(session, parsedMessage.payload);
+    try {
+      return Long.parseLong(key, at + 1, key.length(), 10);
+    } catch (NumberFormatException err) {
+      return ReplayStore.NO_SEQ;
     }
   }
 
-  private void sendMessage(WebSocketSession session, String message) {
-    if (session != null && session.isOpen()) {
-      try {
-        session.sendMessage(new TextMessage(message.translateEscapes()));
-      } catch (Exception e) {
-        // TODO: Handle or log exception
-        e.printStackTrace();
-      }
+  /** null if the message can't be parsed, it's dropped instead of being requeued forever */
+  private RabbitMessage parse(Message message) {
+    try {
+      return new RabbitMessage(message);
+    } catch (IllegalArgumentException err) {
+      System.out.println("Dropping invalid message: " + err.getMessage());
+      return null;
     }
   }
 
+  /**
+   * Text messages are "clientId;part;part payload", binary ones are MutationEnvelope. Either way
+   * the payload is kept ready to be sent to the websockets as is.
+   */
   class RabbitMessage {
     public List<String> keys;
-    public String payload;
+    // sequence number of the message in the topic of each key
+    public long[] seqs;
+    private String payload;
+    private byte[] payloadBytes;
+
+    public RabbitMessage(Message message) {
+      if (MutationEnvelope.CONTENT_TYPE.equals(message.getMessageProperties().getContentType())) {
+        MutationEnvelope.Decoded decoded = MutationEnvelope.decode(message.getBody());
+        this.setKeys(decoded.keys());
+        this.payloadBytes = decoded.payload();
+      } else {
+        this.parseText(new String(message.getBody(), StandardCharsets.UTF_8));
+      }
+
+      this.addWorkflowWildcard(message.getMessageProperties().getReceivedRoutingKey());
+    }
 
-    public RabbitMessage(String message) {
+    /**
+     * workflow.entities.mutations.clientId.workflowId -> clientId:WORKFLOW:workflowId:* as the
+     * first key (the last one is what the message is about). Messages published with the old
+     * routing key don't have it.
+     */
+    private void addWorkflowWildcard(String routingKey) {
+      if (this.isNull() || routingKey == null) return;
+      if (!routingKey.startsWith(App.mutationsRoutingKey + ".")) return;
+
+      int dot = routingKey.lastIndexOf('.');
+      String clientId = routingKey.substring(App.mutationsRoutingKey.length() + 1, dot);
+      String workflowId = routingKey.substring(dot + 1);
+      if (clientId.isEmpty() || workflowId.equals("null")) return;
+
+      this.keys.addFirst(SubscriptionIndex.workflowWildcard(clientId, workflowId));
+
+      long[] seqs = new long[this.seqs.length + 1];
+      seqs[0] = ReplayStore.NO_SEQ;
+      System.arraycopy(this.seqs, 0, seqs, 1, this.seqs.length);
+      this.seqs = seqs;
+    }
+
+    private void parseText(String message) {
       int r = 0;
       while (r < message.length()) {
         if (message.charAt(r) == ' ') break;
@@ -178,134 +331,54 @@ public class Receiver extends TextWebSocketHandler {
       if (keyParts.length == 0) return;
 
       String clientId = keyParts[0];
-      this.keys = new ArrayList<>();
+      List<String> keys = new ArrayList<>();
       for (int i = 1; i < keyParts.length; i++) {
-        this.keys.addLast(String.format("%s:%s", clientId, keyParts[i]));
+        keys.addLast(String.format("%s:%s", clientId, keyParts[i]));
       }
+      this.setKeys(keys);
 
-      this.payload = message.subSequence(r, message.length()).toString();
+      this.payload = message.subSequence(r, message.length()).toString().translateEscapes();
     }
 
-    public boolean isNull() {
-      return this.keys == null || this.keys.size() == 0;
-    }
-  }
+    /** Splits "key@seq" into keys and seqs. */
+    private void setKeys(List<String> keys) {
+      this.keys = new ArrayList<>(keys.size());
+      this.seqs = new long[keys.size()];
 
-  class PongManager {
-    private final Deque<Pong> pongs = new ConcurrentLinkedDeque<>();
-    private final Map<String, Boolean> registeredPongs = new ConcurrentHashMap<>();
-    private final Map<String, WebSocketSession> connections;
-    private final AtomicBoolean pongScheduled = new AtomicBoolean(false);
-    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+      for (int i = 0; i < keys.size(); i++) {
+        String key = keys.get(i);
+        int at = key.indexOf('@');
 
-    public PongManager(Map<String, WebSocketSession> connections) {
-      this.connections = connections;
-    }
-
-    public void addPong(String sessionId) {
-      if (!this.registeredPongs.containsKey(sessionId)) {
-        this.registeredPongs.put(sessionId, true);
-        this.pongs.addLast(new Pong(sessionId));
-        this.schedulePongs();
-      }
-    }
-
-    private void sendPongs() {
-      List<Pong> pongsToSend = this.getAndRemoveOldPongs();
-
-      for (Pong pong : pongsToSend) {
-        WebSocketSession session = this.connections.get(pong.sessionId);
-        if (session != null) {
-          try {
-            session.sendMessage(new TextMessage("pong"));
-          } catch (Exception e) {
-            // TODO: Handle or log exception
-            e.printStackTrace();
-          }
-        }
-      }
-
-      this.pongScheduled.set(false);
-    }
-
-    // Cleanup method to remove old Pong instances
-    public List<Pong> getAndRemoveOldPongs() {
-      Instant queryStart = Instant.now();
-
-      // Traverse and remove all elements older than queryStart
-      List<Pong> pongsToSend = new ArrayList<>();
-      Pong pong = this.pongs.peekFirst();
-
-      while (pong != null && pong.timestamp.isBefore(queryStart)) {
-        if (pong.timestamp.isBefore(queryStart)) {
-          pongsToSend.addLast(pong);
-          registeredPongs.remove(pong.sessionId);
-
-          this.pongs.removeFirst();
-        } else {
-          break; // Stop as soon as we reach a Pong with a recent timestamp
-        }
-
-        pong = this.pongs.peekFirst();
-      }
-      ;
-
-      return pongsToSend;
-    }
-
-    private void schedulePongs() {
-      if (!this.pongScheduled.get()) {
-        this.pongScheduled.set(true);
-        this.executor.schedule(this::sendPongs, 10, TimeUnit.SECONDS);
+        this.keys.add(at < 0 ? key : key.substring(0, at));
+        this.seqs[i] = Receiver.parseSeq(key, at);
       }
     }
-  }
-
-  class Pong {
-    public Instant timestamp;
-    public String sessionId;
 
-    public Pong(String sessionId) {
-      this.sessionId = sessionId;
-      this.timestamp = Instant.now();
+    public String getPayload() {
+      if (this.payload == null)
+        this.payload = new String(this.payloadBytes, StandardCharsets.UTF_8);
+      return this.payload;
     }
-  }
-
-  class EventRegistry {
-    private StringRedisTemplate redisTemplate;
-    private static final long TTL_SECONDS = 30;
-    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-    private final Map<String, Set<String>> entityConnections;
 
-    public EventRegistry(
-        StringRedisTemplate redisTemplate, Map<String, Set<String>> entityConnectionsInv) {
-      this.redisTemplate = redisTemplate;
-      this.entityConnections = entityConnectionsInv;
-
-      this.executor.scheduleAtFixedRate(this::clearStale, 180, 180, TimeUnit.SECONDS);
+    public TextMessage toTextMessage() {
+      if (this.payloadBytes != null) return new TextMessage(this.payloadBytes);
+      return new TextMessage(this.payload);
     }
 
-    private void clearStale() {
-      long thirtySecondsAgo = Instant.now().getEpochSecond() - 30;
-      for (String key : this.entityConnections.keySet()) {
-        redisTemplate.opsForZSet().removeRangeByScore(key, 0, thirtySecondsAgo);
-      }
+    /**
+     * Key of the state or entity when the message carries the whole object, the client only keeps
+     * the latest of them. null for the rest (workflows, descriptions and attributes), those share
+     * keys between different objects and can't replace each other.
+     */
+    public String coalesceKey() {
+      String key = this.keys.getLast();
+      if (key.endsWith(":attr")) return null;
+      if (key.contains(":WORKFLOW_STATE:") || key.contains(":WORKFLOW_ENTITY:")) return key;
+      return null;
     }
 
-    public void addEvent(String key, String element) {
-      long timestamp = Instant.now().getEpochSecond();
-
-      // add event to sorted set with timestamp as score
-      redisTemplate.opsForZSet().add(key, element, timestamp);
-
-      redisTemplate.expire(key, TTL_SECONDS, java.util.concurrent.TimeUnit.SECONDS);
-    }
-
-    public Set<String> getRecentEvents(String key) {
-      long max = Instant.now().getEpochSecond() + 60; // max in future guarantees get all events
-      long min = max - 90;
-
-      return redisTemplate.opsForZSet().rangeByScore(key, min, max);
+    public boolean isNull() {
+      return this.keys == null || this.keys.size() == 0;
     }
   }
 }
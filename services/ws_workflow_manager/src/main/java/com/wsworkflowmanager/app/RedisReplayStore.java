@@ -0,0 +1,127 @@
+package com.wsworkflowmanager.app;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations.TypedTuple;
+import org.springframework.stereotype.Component;
+
+/**
+ * Events in a sorted set per key scored by their sequence number, members are "epochSecond event"
+ * so the time window can be applied too. The latest sequence number of a key is a string at
+ * latest-seq:key, expiring after latest-seq-ttl instead of the retention. Commands of all the keys
+ * are pipelined in a single round trip.
+ */
+@Component
+@ConditionalOnProperty(
+    name = "ws-workflow-manager.replay.store",
+    havingValue = "redis",
+    matchIfMissing = true)
+public class RedisReplayStore implements ReplayStore {
+  private final StringRedisTemplate redisTemplate;
+  private final int eventsPerKey;
+  private final int eventsPerWildcard;
+  private final Duration retention;
+  private final Duration latestSeqTtl;
+
+  public RedisReplayStore(
+      StringRedisTemplate redisTemplate,
+      @Value("${ws-workflow-manager.replay.events-per-key:32}") int eventsPerKey,
+      @Value("${ws-workflow-manager.replay.events-per-wildcard:1024}") int eventsPerWildcard,
+      @Value("${ws-workflow-manager.replay.retention:PT10M}") Duration retention,
+      @Value("${ws-workflow-manager.replay.latest-seq-ttl:P1D}") Duration latestSeqTtl) {
+    this.redisTemplate = redisTemplate;
+    this.eventsPerKey = eventsPerKey;
+    this.eventsPerWildcard = eventsPerWildcard;
+    this.retention = retention;
+    this.latestSeqTtl = latestSeqTtl.compareTo(retention) > 0 ? latestSeqTtl : retention;
+  }
+
+  /** ZADD, trim, EXPIRE and SETEX of the latest seq of every key in a single round trip. */
+  @Override
+  public void addEvent(List<String> keys, long[] seqs, String event) {
+    String member = Instant.now().getEpochSecond() + " " + event;
+
+    this.redisTemplate.executePipelined(
+        (RedisCallback<Object>)
+            connection -> {
+              StringRedisConnection conn = (StringRedisConnection) connection;
+              for (int i = 0; i < keys.size(); i++) {
+                String key = keys.get(i);
+
+                conn.zAdd(key, seqs[i], member);
+                conn.zRemRange(key, 0, -this.limit(key) - 1);
+                conn.expire(key, this.retention.toSeconds());
+                if (seqs[i] != NO_SEQ)
+                  conn.setEx(
+                      latestSeqKey(key),
+                      this.latestSeqTtl.toSeconds(),
+                      Long.toString(seqs[i]));
+              }
+              return null;
+            });
+  }
+
+  /** ZRANGE and GET of the latest seq of every key pipelined in a single round trip. */
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<Replay> getEvents(String[] keys, long[] afterSeqs, int count) {
+    long windowStart = Instant.now().getEpochSecond() - WINDOW_SECONDS;
+
+    List<Object> results =
+        this.redisTemplate.executePipelined(
+            (RedisCallback<Object>)
+                connection -> {
+                  StringRedisConnection conn = (StringRedisConnection) connection;
+                  for (int i = 0; i < count; i++) {
+                    conn.zRangeWithScores(keys[i], 0, -1);
+                    conn.get(latestSeqKey(keys[i]));
+                  }
+                  return null;
+                });
+
+    List<Replay> replays = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Set<TypedTuple<String>> tuples = (Set<TypedTuple<String>>) results.get(2 * i);
+      String latestSeq = (String) results.get(2 * i + 1);
+      if (tuples == null) tuples = Set.of();
+
+      List<Retained> retained = new ArrayList<>(tuples.size());
+      for (TypedTuple<String> tuple : tuples) {
+        String member = tuple.getValue();
+        int space = member.indexOf(' ');
+
+        retained.add(
+            new Retained(
+                tuple.getScore().longValue(),
+                Long.parseLong(member, 0, space, 10),
+                member.substring(space + 1)));
+      }
+
+      replays.add(
+          ReplayStore.select(
+              retained,
+              afterSeqs[i],
+              latestSeq == null ? NO_SEQ : Long.parseLong(latestSeq),
+              windowStart,
+              this.limit(keys[i])));
+    }
+
+    return replays;
+  }
+
+  private int limit(String key) {
+    return ReplayStore.limit(key, this.eventsPerKey, this.eventsPerWildcard);
+  }
+
+  private static String latestSeqKey(String key) {
+    return "latest-seq:" + key;
+  }
+}
@@ -0,0 +1,84 @@
+package com.wsworkflowmanager.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recent events of each topic key, replayed to a session when it subscribes so it doesn't miss
+ * what happened between loading the data (or disconnecting) and subscribing.
+ *
+ * <p>Events carry the sequence number the publisher gave them in the key's topic. Each key keeps at
+ * most its last events-per-key events (events-per-wildcard for wildcards, which get every message
+ * of a workflow), for about the retention, and its latest sequence number for latest-seq-ttl
+ * (longer than the retention). A subscription without a sequence number gets the events of the
+ * last WINDOW_SECONDS, one with a sequence number gets the events after it, or snapshotNeeded if
+ * some of them aren't retained anymore: the client must load the topic again. That includes keys
+ * whose latest sequence number was forgotten, or is behind the client's (the publisher starts
+ * topics again from 1 once they're unused long enough), and windows the limit cut short.
+ *
+ * <p>ws-workflow-manager.replay.store selects the implementation: redis (default) is shared by
+ * every websocket node, memory keeps the events in the process and only works with a single node.
+ */
+public interface ReplayStore {
+  /** Events replayed to subscriptions without a sequence number. */
+  long WINDOW_SECONDS = 30;
+
+  /** Event or subscription without a sequence number. */
+  long NO_SEQ = -1;
+
+  /** seqs[i] is the sequence number of the event in keys[i], NO_SEQ if it has none. */
+  void addEvent(List<String> keys, long[] seqs, String event);
+
+  /**
+   * Replays of keys[0..count), afterSeqs[i] is the last sequence number the client has of keys[i]
+   * (or NO_SEQ). The arrays are the caller's and may be longer than count.
+   */
+  List<Replay> getEvents(String[] keys, long[] afterSeqs, int count);
+
+  record Replay(List<String> events, boolean snapshotNeeded) {
+    static final Replay EMPTY = new Replay(List.of(), false);
+    static final Replay SNAPSHOT_NEEDED = new Replay(List.of(), true);
+  }
+
+  record Retained(long seq, long second, String event) {}
+
+  /** Most events retained in the key. */
+  static int limit(String key, int eventsPerKey, int eventsPerWildcard) {
+    return SubscriptionIndex.isWildcard(key) ? eventsPerWildcard : eventsPerKey;
+  }
+
+  /**
+   * What a subscription gets from the retained events of its key, oldest first. latestSeq is the
+   * last sequence number published in the key, NO_SEQ if it isn't known (anymore). limit is the
+   * most events the key retains.
+   */
+  static Replay select(
+      List<Retained> retained, long afterSeq, long latestSeq, long windowStart, int limit) {
+    List<String> events = new ArrayList<>();
+
+    if (afterSeq == NO_SEQ) {
+      // full and the oldest one is in the window, the ones pushed out may have been too
+      if (retained.size() >= limit && retained.getFirst().second() >= windowStart)
+        return Replay.SNAPSHOT_NEEDED;
+
+      for (Retained r : retained) if (r.second() >= windowStart) events.add(r.event());
+      return new Replay(events, false);
+    }
+
+    if (latestSeq == NO_SEQ || afterSeq > latestSeq) return Replay.SNAPSHOT_NEEDED;
+    if (afterSeq == latestSeq) return Replay.EMPTY;
+
+    long oldest = Long.MAX_VALUE;
+    for (Retained r : retained) {
+      if (r.seq() == NO_SEQ) continue;
+
+      oldest = Math.min(oldest, r.seq());
+      if (r.seq() > afterSeq) events.add(r.event());
+    }
+
+    // missed events that aren't retained anymore, all of them when nothing is
+    if (oldest > afterSeq + 1) return Replay.SNAPSHOT_NEEDED;
+
+    return new Replay(events, false);
+  }
+}
@@ -0,0 +1,215 @@
+package com.wsworkflowmanager.app;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Topic key -> subscribed sessions, written from the websocket threads and read from the rabbit
+ * listeners.
+ *
+ * <p>The subscribers of a topic are an immutable array that is replaced (copy on write) inside
+ * ConcurrentHashMap.compute, so writers of the same topic are serialized by the map bin lock and
+ * the notify path is a plain get without locks or copies. Topics are spread over shards so a
+ * resize only touches a fraction of the keys. Sessions are registered once and interned as a
+ * Subscriber, which is what the arrays hold and what fan-out deduplicates by identity.
+ *
+ * <p>Topics ending with :* are wildcards, clientId:WORKFLOW:workflowId:* has every message of the
+ * workflow. They are plain topics here, the messages carry the wildcard of their workflow as one
+ * more key (see Receiver.RabbitMessage), so matching them costs one more lookup per message
+ * instead of walking the subscriptions.
+ *
+ * <p>The TopicListener is told when a topic gets its first subscriber and when its last one leaves,
+ * inside the compute of the topic so the calls of a topic never overlap or reorder. They hold the
+ * bin lock, so they must not block.
+ */
+@Component
+public class SubscriptionIndex {
+  private static final Subscriber[] EMPTY = new Subscriber[0];
+  private static final int SHARDS = 64;
+  private static final CompletableFuture<Void> READY = CompletableFuture.completedFuture(null);
+
+  private final Map<String, Subscriber> sessions = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Subscriber[]>[] shards;
+  private final TopicListener listener;
+
+  @SuppressWarnings("unchecked")
+  public SubscriptionIndex(TopicListener listener) {
+    this.listener = listener;
+    this.shards = new ConcurrentHashMap[SHARDS];
+    for (int i = 0; i < SHARDS; i++) this.shards[i] = new ConcurrentHashMap<>();
+  }
+
+  public Subscriber register(OutboundQueue outbound) {
+    Subscriber subscriber = new Subscriber(outbound);
+    this.sessions.put(subscriber.id, subscriber);
+
+    return subscriber;
+  }
+
+  /** null if the session isn't connected */
+  public Subscriber get(String sessionId) {
+    return this.sessions.get(sessionId);
+  }
+
+  /** Removes the session and all its subscriptions. */
+  public void unregister(String sessionId) {
+    Subscriber subscriber = this.sessions.remove(sessionId);
+    if (subscriber == null) return;
+
+    subscriber.closed = true;
+    this.unsubscribeAll(subscriber);
+  }
+
+  /** Completes when the messages of the topic reach this node, see TopicListener.ready. */
+  public CompletableFuture<Void> subscribe(Subscriber subscriber, String topic) {
+    synchronized (subscriber.topics) {
+      if (!subscriber.topics.add(topic)) return this.listener.ready(topic);
+    }
+
+    try {
+      this.shard(topic).compute(topic, (k, current) -> this.with(k, current, subscriber));
+    } catch (RuntimeException err) {
+      // not subscribed, the next S of the topic must try again
+      synchronized (subscriber.topics) {
+        subscriber.topics.remove(topic);
+      }
+      throw err;
+    }
+
+    // closed while subscribing, unregister may not have seen the topic
+    if (subscriber.closed) this.unsubscribe(subscriber, topic);
+
+    return this.listener.ready(topic);
+  }
+
+  public void unsubscribe(Subscriber subscriber, String topic) {
+    synchronized (subscriber.topics) {
+      subscriber.topics.remove(topic);
+    }
+
+    this.shard(topic).computeIfPresent(topic, (k, current) -> this.without(k, current, subscriber));
+  }
+
+  public void unsubscribeAll(Subscriber subscriber) {
+    String[] topics;
+    synchronized (subscriber.topics) {
+      topics = subscriber.topics.toArray(new String[0]);
+      subscriber.topics.clear();
+    }
+
+    for (String topic : topics)
+      this.shard(topic)
+          .computeIfPresent(topic, (k, current) -> this.without(k, current, subscriber));
+  }
+
+  /** The returned array must not be modified. */
+  public Subscriber[] subscribers(String topic) {
+    Subscriber[] subscribers = this.shard(topic).get(topic);
+    return subscribers == null ? EMPTY : subscribers;
+  }
+
+  /** Subscribers of any of the topics, each one once. */
+  public Collection<Subscriber> subscribers(List<String> topics) {
+    if (topics.size() == 1) return Arrays.asList(this.subscribers(topics.get(0)));
+
+    Set<Subscriber> subscribers = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (String topic : topics) Collections.addAll(subscribers, this.subscribers(topic));
+
+    return subscribers;
+  }
+
+  public static boolean isWildcard(String topic) {
+    return topic.endsWith(":*");
+  }
+
+  public static String workflowWildcard(String clientId, String workflowId) {
+    return clientId + ":WORKFLOW:" + workflowId + ":*";
+  }
+
+  public void forEachTopic(Consumer<String> consumer) {
+    for (ConcurrentHashMap<String, Subscriber[]> shard : this.shards)
+      shard.keySet().forEach(consumer);
+  }
+
+  private ConcurrentHashMap<String, Subscriber[]> shard(String topic) {
+    int h = topic.hashCode();
+    return this.shards[(h ^ (h >>> 16)) & (SHARDS - 1)];
+  }
+
+  private Subscriber[] with(String topic, Subscriber[] current, Subscriber subscriber) {
+    if (current == null) {
+      this.listener.topicAdded(topic);
+      return new Subscriber[] {subscriber};
+    }
+
+    for (Subscriber s : current) if (s == subscriber) return current;
+
+    Subscriber[] next = Arrays.copyOf(current, current.length + 1);
+    next[current.length] = subscriber;
+
+    return next;
+  }
+
+  /** null (removes the topic) when the last subscriber leaves */
+  private Subscriber[] without(String topic, Subscriber[] current, Subscriber subscriber) {
+    for (int i = 0; i < current.length; i++) {
+      if (current[i] != subscriber) continue;
+      if (current.length == 1) {
+        this.listener.topicRemoved(topic);
+        return null;
+      }
+
+      Subscriber[] next = new Subscriber[current.length - 1];
+      System.arraycopy(current, 0, next, 0, i);
+      System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+
+      return next;
+    }
+
+    return current;
+  }
+
+  public interface TopicListener {
+    void topicAdded(String topic);
+
+    void topicRemoved(String topic);
+
+    /** Completes once the messages of a topic that was added are routed to this node. */
+    default CompletableFuture<Void> ready(String topic) {
+      return READY;
+    }
+  }
+
+  /** A connected session, its send queue and the topics it's subscribed to. */
+  public static final class Subscriber {
+    private final String id;
+    private final OutboundQueue outbound;
+    private final Set<String> topics = new HashSet<>();
+    private volatile boolean closed = false;
+    // slot of the session in Heartbeats, guarded by it
+    int heartbeatSlot = -1;
+
+    private Subscriber(OutboundQueue outbound) {
+      this.id = outbound.getSession().getId();
+      this.outbound = outbound;
+    }
+
+    public String getId() {
+      return this.id;
+    }
+
+    public OutboundQueue getOutbound() {
+      return this.outbound;
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package com.wsworkflowmanager.app;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Binds the notify queue of this node to the clients (tenants) its sessions are subscribed to, so
+ * the node only receives their mutations. A client is bound when its first topic gets a subscriber
+ * and unbound unbind-delay after its last topic lost its last one, sessions that resubscribe right
+ * away (page changes, reconnects) don't churn the bindings. The queue is declared again by the
+ * RabbitAdmin when the connection to the broker is recreated, the bindings are declared again here.
+ *
+ * <p>The listener calls come from inside the compute of SubscriptionIndex, they only count the
+ * topics of the client. Bindings are declared and removed by the executor (one at a time, so a
+ * client's bind and unbind don't race), which retries with backoff while the broker fails. ready
+ * completes once the client is bound, Receiver waits for it before replaying so the messages
+ * published in between aren't missed.
+ */
+@Component
+public class TenantBindings implements SubscriptionIndex.TopicListener {
+  private static final Duration MIN_RETRY_DELAY = Duration.ofSeconds(1);
+  private static final Duration MAX_RETRY_DELAY = Duration.ofSeconds(30);
+  private static final CompletableFuture<Void> READY = CompletableFuture.completedFuture(null);
+
+  private final AmqpAdmin amqpAdmin;
+  private final TopicExchange exchange;
+  private final Queue notifyQueue;
+  private final Duration unbindDelay;
+
+  // clientId -> topics of the client with subscribers on this node
+  private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+  public TenantBindings(
+      AmqpAdmin amqpAdmin,
+      ConnectionFactory connectionFactory,
+      TopicExchange exchange,
+      @Qualifier("notifyQueue") Queue notifyQueue,
+      @Value("${ws-workflow-manager.routing.unbind-delay:PT30S}") Duration unbindDelay) {
+    this.amqpAdmin = amqpAdmin;
+    this.exchange = exchange;
+    this.notifyQueue = notifyQueue;
+    this.unbindDelay = unbindDelay;
+
+    // registered after the admin's listener, the queue already exists when this runs
+    connectionFactory.addConnectionListener(connection -> this.executor.execute(this::rebind));
+  }
+
+  @Override
+  public void topicAdded(String topic) {
+    this.tenants.compute(
+        TenantBindings.tenantOf(topic),
+        (clientId, tenant) -> {
+          if (tenant == null) tenant = new Tenant();
+          if (tenant.topics++ == 0) this.executor.execute(() -> this.sync(clientId));
+          return tenant;
+        });
+  }
+
+  @Override
+  public CompletableFuture<Void> ready(String topic) {
+    Tenant tenant = this.tenants.get(TenantBindings.tenantOf(topic));
+    return tenant == null ? READY : tenant.ready;
+  }
+
+  @Override
+  public void topicRemoved(String topic) {
+    this.tenants.computeIfPresent(
+        TenantBindings.tenantOf(topic),
+        (clientId, tenant) -> {
+          if (--tenant.topics == 0)
+            this.executor.schedule(
+                () -> this.sync(clientId), this.unbindDelay.toMillis(), TimeUnit.MILLISECONDS);
+          return tenant;
+        });
+  }
+
+  /** Bindings of the new connection, on the executor. */
+  private void rebind() {
+    for (Map.Entry<String, Tenant> entry : this.tenants.entrySet()) {
+      entry.getValue().bound = false;
+      entry.getValue().ready = new CompletableFuture<>();
+      this.sync(entry.getKey());
+    }
+  }
+
+  /**
+   * Binds the client if it has topics and unbinds it if it has none, on the executor. Topics added
+   * while unbinding schedule another sync, which binds it again.
+   */
+  private void sync(String clientId) {
+    Tenant tenant = this.tenants.get(clientId);
+    if (tenant == null) return;
+
+    // decided in the compute of the tenant, a topic added after it waits for the next binding
+    tenant.unbinding = false;
+    this.tenants.computeIfPresent(
+        clientId,
+        (k, t) -> {
+          t.unbinding = t.topics == 0 && t.bound;
+          if (t.unbinding) t.ready = new CompletableFuture<>();
+          return t;
+        });
+
+    try {
+      if (tenant.unbinding) {
+        this.amqpAdmin.removeBinding(this.binding(clientId));
+        tenant.bound = false;
+      } else if (tenant.topics > 0) {
+        if (!tenant.bound) this.amqpAdmin.declareBinding(this.binding(clientId));
+        tenant.bound = true;
+        tenant.ready.complete(null);
+      }
+      tenant.retryDelay = MIN_RETRY_DELAY;
+    } catch (RuntimeException err) {
+      System.out.println("Failed to sync binding of " + clientId + ": " + err.getMessage());
+
+      // a newer tenant replacing this one has its own syncs scheduled
+      this.executor.schedule(
+          () -> {
+            if (this.tenants.get(clientId) == tenant) this.sync(clientId);
+          },
+          tenant.retryDelay.toMillis(),
+          TimeUnit.MILLISECONDS);
+      tenant.retryDelay = min(tenant.retryDelay.multipliedBy(2), MAX_RETRY_DELAY);
+      return;
+    }
+
+    if (!tenant.bound)
+      this.tenants.computeIfPresent(clientId, (k, t) -> t.topics == 0 && !t.bound ? null : t);
+  }
+
+  /** workflow.entities.mutations.clientId.* (any workflow of the client) */
+  private Binding binding(String clientId) {
+    return BindingBuilder.bind(this.notifyQueue)
+        .to(this.exchange)
+        .with(String.format("%s.%s.*", App.mutationsRoutingKey, clientId));
+  }
+
+  /** topic keys start with the clientId, clientId:type[:id][:attr] */
+  private static String tenantOf(String topic) {
+    int colon = topic.indexOf(':');
+    return colon < 0 ? topic : topic.substring(0, colon);
+  }
+
+  private static Duration min(Duration a, Duration b) {
+    return a.compareTo(b) <= 0 ? a : b;
+  }
+
+  private static class Tenant {
+    // written inside the compute of the tenant
+    volatile int topics = 0;
+    // completed while the client is bound, replaced (in the compute) before it's unbound
+    volatile CompletableFuture<Void> ready = new CompletableFuture<>();
+    // bound, unbinding, retryDelay: only used by the executor
+    boolean bound = false;
+    boolean unbinding = false;
+    Duration retryDelay = MIN_RETRY_DELAY;
+  }
+}